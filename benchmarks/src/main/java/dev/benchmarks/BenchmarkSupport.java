@@ -0,0 +1,66 @@
+package dev.benchmarks;
+
+import ch.qos.logback.classic.Level;
+import dev.message.MessageBuilder;
+import dev.message.payload.Cell;
+import dev.message.payload.PeerDigestPayload;
+import dev.models.Message;
+import dev.models.PeerInfo;
+import dev.models.enums.MessageType;
+import dev.models.enums.WireFormat;
+import dev.protocol.PeerDigest;
+import dev.utils.Crypto;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// Fixtures shared by the benchmarks. Message sizes follow what a 3 hop circuit actually puts on the wire.
+final class BenchmarkSupport {
+    private static final String PUBLIC_KEY = Base64.getEncoder().encodeToString(new Crypto().getPublicKey().getEncoded());
+
+    private BenchmarkSupport() {
+    }
+
+    // The node logs every dispatched message at debug level, which would dominate every measurement
+    static void quietLogging() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    static Message message(MessageType messageType) {
+        UUID circuitId = UUID.randomUUID();
+        return switch (messageType) {
+            case HANDSHAKE -> MessageBuilder.buildHandshakeMessage(PUBLIC_KEY, 12137, WireFormat.BINARY);
+            case PEER_DISCOVERY_REQUEST -> MessageBuilder.buildPeerRequestMessage(digest(10));
+            case PEER_DISCOVERY_RESPONSE -> MessageBuilder.buildPeerResponseMessage(peers(10));
+            // X25519 handshake, stream relay crypto fills every cell sealed end to end
+            case CIRCUIT_CREATE_REQUEST -> MessageBuilder.buildCircuitCreateMessageRequest(Cell.of(circuitId, bytes(34)));
+            case CIRCUIT_CREATE_RESPONSE -> MessageBuilder.buildCircuitCreateMessageResponse(Cell.of(circuitId, bytes(32)));
+            case CIRCUIT_EXTEND_REQUEST -> MessageBuilder.buildCircuitExtendMessageRequest(Cell.of(circuitId, bytes(Cell.MAX_BODY_SIZE)));
+            case CIRCUIT_EXTEND_RESPONSE -> MessageBuilder.buildCircuitExtendMessageResponse(Cell.of(circuitId, bytes(Cell.MAX_BODY_SIZE)));
+            case CIRCUIT_SENDME -> MessageBuilder.buildCircuitSendmeMessage(Cell.of(circuitId, bytes(Cell.MAX_BODY_SIZE)));
+            case DATA_TRANSFER -> MessageBuilder.buildCircuitDataMessage(Cell.of(circuitId, bytes(Cell.MAX_BODY_SIZE)));
+            case CIRCUIT_DESTROY -> MessageBuilder.buildCircuitDestroyMessage(Cell.of(circuitId, bytes(0)));
+        };
+    }
+
+    static List<PeerInfo> peers(int count) {
+        List<PeerInfo> peers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            peers.add(new PeerInfo(PUBLIC_KEY, "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF), 12137));
+        return peers;
+    }
+
+    static PeerDigestPayload digest(int peerCount) {
+        return PeerDigest.of(peers(peerCount).stream().map(PeerInfo::getPublicKey).toList(), 0, true);
+    }
+
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
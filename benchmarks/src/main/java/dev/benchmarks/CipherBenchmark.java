@@ -0,0 +1,103 @@
+package dev.benchmarks;
+
+import dev.message.payload.Cell;
+import dev.utils.CipherContext;
+import dev.utils.CipherContext.Direction;
+import dev.utils.Crypto;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+// One onion layer of a full data cell, the way relays add and peel them. PER_CALL is how Crypto used to do it, a
+// new Cipher and SecureRandom per layer, KEY is Crypto as it is now and CONTEXT a circuit's CipherContext.
+// bytes/s divided by 10^6 is MB/s for the one thread measured.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+    private static final int PLAINTEXT_SIZE = Cell.MAX_BODY_SIZE - Crypto.AES_OVERHEAD;
+
+    public enum Api {PER_CALL, KEY, CONTEXT}
+
+    @Param({"PER_CALL", "KEY", "CONTEXT"})
+    public Api api;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+    }
+
+    private final Crypto crypto = new Crypto();
+    private final ByteBuffer plaintext = ByteBuffer.allocate(PLAINTEXT_SIZE);
+    private final ByteBuffer encrypted = ByteBuffer.allocate(Cell.MAX_BODY_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocate(Cell.MAX_BODY_SIZE);
+    private byte[] key;
+    private CipherContext context;
+
+    @Setup
+    public void setup() {
+        key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        context = new CipherContext(key, Direction.FORWARD);
+        new SecureRandom().nextBytes(plaintext.array());
+
+        encrypt(plaintext.clear(), encrypted.clear());
+        encrypted.flip();
+    }
+
+    @Benchmark
+    public int encrypt(Counters counters) {
+        counters.bytes += PLAINTEXT_SIZE;
+        return encrypt(plaintext.clear(), output.clear());
+    }
+
+    @Benchmark
+    public int decrypt(Counters counters) {
+        counters.bytes += PLAINTEXT_SIZE;
+        return decrypt(encrypted.rewind(), output.clear());
+    }
+
+    private int encrypt(ByteBuffer in, ByteBuffer out) {
+        return switch (api) {
+            case PER_CALL -> perCall(Cipher.ENCRYPT_MODE, in, out);
+            case KEY -> crypto.encryptAES(in, out, key);
+            case CONTEXT -> context.encrypt(in, out);
+        };
+    }
+
+    private int decrypt(ByteBuffer in, ByteBuffer out) {
+        return switch (api) {
+            case PER_CALL -> perCall(Cipher.DECRYPT_MODE, in, out);
+            case KEY -> crypto.decryptAES(in, out, key);
+            case CONTEXT -> context.decrypt(in, out);
+        };
+    }
+
+    private int perCall(int mode, ByteBuffer in, ByteBuffer out) {
+        try {
+            byte[] iv = new byte[12];
+            if (mode == Cipher.ENCRYPT_MODE) {
+                new SecureRandom().nextBytes(iv);
+                out.put(iv);
+            } else {
+                in.get(iv);
+            }
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+            return cipher.doFinal(in, out);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package dev.benchmarks;
+
+import dev.message.FrameCodec;
+import dev.message.MessageSerializer;
+import dev.message.payload.Cell;
+import dev.message.payload.CellPool;
+import dev.models.Message;
+import dev.models.enums.MessageType;
+import dev.models.enums.WireFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Encode and decode cost of one message per type and wire format. Run with -prof gc for allocation per op.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param
+    public MessageType messageType;
+
+    @Param({"BINARY", "TEXT"})
+    public WireFormat wireFormat;
+
+    private Message message;
+    private byte[] frame;
+    private String line;
+    private CellPool cellPool;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        message = BenchmarkSupport.message(messageType);
+        cellPool = new CellPool(16, false);
+        line = MessageSerializer.serialize(message);
+
+        ByteBuffer[] buffers = FrameCodec.encode(message, WireFormat.BINARY);
+        ByteBuffer joined = ByteBuffer.allocate(buffers[0].remaining() + (buffers.length > 1 ? buffers[1].remaining() : 0));
+        for (ByteBuffer buffer : buffers) joined.put(buffer);
+        frame = joined.array();
+    }
+
+    @Benchmark
+    public ByteBuffer[] serialize() {
+        return FrameCodec.encode(message, wireFormat);
+    }
+
+    // Reads the payload as well, binary payloads are otherwise only decoded when a handler asks for them
+    @Benchmark
+    public Object deserialize() {
+        if (wireFormat == WireFormat.TEXT) return MessageSerializer.deserialize(line).getPayload();
+
+        Message decoded = FrameCodec.decode(frame, FrameCodec.LENGTH_FIELD_SIZE, frame.length - FrameCodec.LENGTH_FIELD_SIZE, cellPool);
+        Object payload = decoded.getPayload();
+        if (payload instanceof Cell cell) cell.release();
+        return payload;
+    }
+}
@@ -0,0 +1,127 @@
+package dev.benchmarks;
+
+import dev.message.MessageBuilder;
+import dev.models.Event;
+import dev.models.Message;
+import dev.models.enums.MessageType;
+import dev.models.enums.PeerDirection;
+import dev.models.enums.WireFormat;
+import dev.network.MessageQueue;
+import dev.network.NetworkManager;
+import dev.network.Peer;
+import dev.network.PeerConnection;
+import dev.protocol.MessageHandler;
+import dev.utils.Config;
+import dev.utils.ExecutorFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Cost of getting a decoded message to its protocol: MessageQueue hand-off plus MessageHandler.digest, with a
+// protocol that does nothing so only the dispatch path is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int MAX_BACKLOG = 10_000;
+
+    private MessageQueue messageQueue;
+    private MessageQueue.Lane queue;
+    private MessageHandler messageHandler;
+    private Peer peer;
+    private Message message;
+    private Event event;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        Config config = new Config(new Properties());
+        messageQueue = new MessageQueue(config);
+        messageHandler = new MessageHandler(messageQueue, config);
+        NetworkManager networkManager = new NetworkManager(config, messageHandler, messageQueue, new ExecutorFactory(config));
+        for (MessageType messageType : MessageType.values())
+            messageHandler.registerProtocol(messageType, (sender, received) -> {});
+
+        queue = messageQueue.getLane(MessageQueue.CONTROL_LANE);
+        peer = new Peer(new IdleConnection(), messageQueue, networkManager, PeerDirection.INBOUND);
+        message = MessageBuilder.buildPeerRequestMessage(BenchmarkSupport.digest(10));
+        event = new Event(peer, message);
+    }
+
+    @Benchmark
+    public Event enqueue() {
+        messageQueue.add(event);
+        return queue.poll();
+    }
+
+    @Benchmark
+    public void digest() {
+        messageHandler.digest(peer, message);
+    }
+
+    @Benchmark
+    public void enqueueAndDigest() {
+        messageQueue.add(new Event(peer, message));
+        Event taken = queue.poll();
+        messageHandler.digest(taken.sender(), taken.message());
+    }
+
+    // Several reader threads feeding one handler thread, as the transports do
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void producer() {
+        if (queue.size() < MAX_BACKLOG) messageQueue.add(event);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void consumer(Blackhole blackhole) {
+        Event taken = queue.poll();
+        if (taken != null) messageHandler.digest(taken.sender(), taken.message());
+        blackhole.consume(taken);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        queue.clear();
+    }
+
+    private static class IdleConnection implements PeerConnection {
+        @Override
+        public String getLocalAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public void write(ByteBuffer[] frames) {
+        }
+
+        @Override
+        public void executeWrite(Runnable writer) {
+        }
+
+        @Override
+        public void pauseReading() {
+        }
+
+        @Override
+        public void resumeReading() {
+        }
+
+        @Override
+        public void setWireFormat(WireFormat wireFormat) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
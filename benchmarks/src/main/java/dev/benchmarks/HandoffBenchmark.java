@@ -0,0 +1,86 @@
+package dev.benchmarks;
+
+import dev.message.MessageBuilder;
+import dev.models.Event;
+import dev.models.enums.MessageQueueType;
+import dev.models.enums.OverloadPolicy;
+import dev.models.enums.WaitStrategy;
+import dev.network.MessageQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Reader threads handing events to one handler lane, linked queue against the ring. The measured thread is the
+// consumer draining batches as MessageHandler does; events/s is the number to compare.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandoffBenchmark {
+    private static final int CAPACITY = 10_000;
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"8", "64", "512"})
+    public int producers;
+
+    @Param({"LINKED", "RING_PARK", "RING_YIELD", "RING_SPIN"})
+    public String queue;
+
+    private MessageQueue messageQueue;
+    private MessageQueue.Lane lane;
+    private final List<Thread> producerThreads = new ArrayList<>();
+    private volatile boolean isRunning;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long events;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        MessageQueueType queueType = queue.equals("LINKED") ? MessageQueueType.LINKED : MessageQueueType.RING;
+        WaitStrategy waitStrategy = queue.equals("LINKED") ? WaitStrategy.PARK : WaitStrategy.valueOf(queue.substring(5));
+        messageQueue = new MessageQueue(1, CAPACITY, OverloadPolicy.PAUSE_READING, queueType, waitStrategy, 8);
+        lane = messageQueue.getLane(MessageQueue.CONTROL_LANE);
+
+        // Events without a sender, PAUSE_READING is never triggered because producers back off at half the capacity
+        Event event = new Event(null, MessageBuilder.buildPeerRequestMessage(BenchmarkSupport.digest(10)));
+        isRunning = true;
+        for (int i = 0; i < producers; i++) {
+            Thread producer = new Thread(() -> {
+                while (isRunning) {
+                    if (lane.size() < CAPACITY / 2) messageQueue.add(event);
+                    else Thread.yield();
+                }
+            }, "producer-" + i);
+            producer.setDaemon(true);
+            producer.start();
+            producerThreads.add(producer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        isRunning = false;
+        for (Thread producer : producerThreads) producer.join();
+        producerThreads.clear();
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        final Event[] events = new Event[BATCH_SIZE];
+    }
+
+    @Benchmark
+    public int drain(Batch batch, Counters counters) throws InterruptedException {
+        int count = lane.drain(batch.events);
+        counters.events += count;
+        return count;
+    }
+}
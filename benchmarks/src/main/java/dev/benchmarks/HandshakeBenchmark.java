@@ -0,0 +1,73 @@
+package dev.benchmarks;
+
+import dev.utils.Crypto;
+import dev.utils.KeyAgreementSuite;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// What one hop spends on a circuit handshake, step by step and in full. hopHandshake is a relay answering a CREATE
+// with a cold key pool: decode the offer, generate a key pair, agree and derive the session key. The identity key
+// decode is what every peer handshake pays, it does not depend on the suite.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+    @Param({"X25519", "SECP256R1"})
+    public KeyAgreementSuite suite;
+
+    private final Crypto crypto = new Crypto();
+    private final String identityKey = Base64.getEncoder().encodeToString(crypto.getPublicKey().getEncoded());
+    private KeyPair ours;
+    private PublicKey theirs;
+    private byte[] offer;
+    private byte[] sharedSecret;
+
+    @Setup
+    public void setup() {
+        ours = suite.generateKeyPair();
+        KeyPair client = suite.generateKeyPair();
+        theirs = client.getPublic();
+        offer = suite.encodeOffer(theirs);
+        sharedSecret = suite.agree(ours.getPrivate(), theirs);
+    }
+
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return suite.generateKeyPair();
+    }
+
+    @Benchmark
+    public byte[] agree() {
+        return suite.agree(ours.getPrivate(), theirs);
+    }
+
+    @Benchmark
+    public PublicKey decodeOffer() {
+        return KeyAgreementSuite.decodeOffer(offer);
+    }
+
+    @Benchmark
+    public byte[] deriveAESKey() {
+        return crypto.deriveAESKey(sharedSecret);
+    }
+
+    @Benchmark
+    public PublicKey decodeIdentityKey() {
+        return crypto.decodePublicKey(identityKey);
+    }
+
+    @Benchmark
+    public Object hopHandshake() {
+        PublicKey client = KeyAgreementSuite.decodeOffer(offer);
+        KeyPair ephemeral = suite.generateKeyPair();
+        byte[] sessionKey = crypto.deriveAESKey(suite.agree(ephemeral.getPrivate(), client));
+        return new Object[]{suite.encode(ephemeral.getPublic()), sessionKey};
+    }
+}
@@ -0,0 +1,66 @@
+package dev.benchmarks;
+
+import dev.utils.Config;
+import dev.utils.ExecutorFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+// Not a JMH benchmark: what idle links cost in each execution mode. Opens the given number of localhost links, each
+// read line by line on the node's peer executor, then prints the live platform threads, resident memory grown since
+// the start and the heap in use. Linux only, RSS is read from /proc/self/status.
+//     java -cp benchmarks/target/benchmarks.jar dev.benchmarks.LinkFootprint virtual 1000
+public class LinkFootprint {
+    public static void main(String[] args) throws Exception {
+        String executionMode = args.length > 0 ? args[0] : "platform";
+        int links = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Properties properties = new Properties();
+        properties.setProperty("execution.mode", executionMode);
+        ExecutorService peerExecutor = new ExecutorFactory(new Config(properties)).newPeerExecutor();
+
+        List<Socket> clients = new ArrayList<>();
+        long baseRss = rssKilobytes();
+        try (ServerSocket serverSocket = new ServerSocket(0, links)) {
+            for (int i = 0; i < links; i++) {
+                clients.add(new Socket("localhost", serverSocket.getLocalPort()));
+                Socket socket = serverSocket.accept();
+                peerExecutor.submit(() -> readUntilClosed(socket));
+            }
+
+            Thread.sleep(2000);
+            System.gc();
+            Thread.sleep(500);
+
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            System.out.printf("%s: %d links, %d live platform threads, +%.1f MB RSS, %.1f MB heap%n",
+                    executionMode, links, ManagementFactory.getThreadMXBean().getThreadCount(),
+                    (rssKilobytes() - baseRss) / 1024.0, heap.getUsed() / 1048576.0);
+        }
+        System.exit(0);
+    }
+
+    private static void readUntilClosed(Socket socket) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            while (reader.readLine() != null) ;
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long rssKilobytes() throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc/self/status")))
+            if (line.startsWith("VmRSS")) return Long.parseLong(line.replaceAll("\\D", ""));
+        return 0;
+    }
+}
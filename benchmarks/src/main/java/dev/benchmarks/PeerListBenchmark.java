@@ -0,0 +1,49 @@
+package dev.benchmarks;
+
+import dev.message.FrameCodec;
+import dev.message.MessageBuilder;
+import dev.message.MessageSerializer;
+import dev.models.Message;
+import dev.models.enums.WireFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// PEER_DISCOVERY_RESPONSE is the only message whose size grows this fast with the network, a digest only adds 10 bits per peer
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerListBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int peerCount;
+
+    @Param({"BINARY", "TEXT"})
+    public WireFormat wireFormat;
+
+    private Message message;
+    private byte[] frame;
+    private String line;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        message = MessageBuilder.buildPeerResponseMessage(BenchmarkSupport.peers(peerCount));
+        frame = FrameCodec.encode(message, WireFormat.BINARY)[0].array();
+        line = MessageSerializer.serialize(message);
+    }
+
+    @Benchmark
+    public ByteBuffer[] serialize() {
+        return FrameCodec.encode(message, wireFormat);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        if (wireFormat == WireFormat.TEXT) return MessageSerializer.deserialize(line).getPayload();
+        return FrameCodec.decode(frame, FrameCodec.LENGTH_FIELD_SIZE, frame.length - FrameCodec.LENGTH_FIELD_SIZE, null).getPayload();
+    }
+}
@@ -0,0 +1,86 @@
+package dev.network;
+
+import dev.message.payload.Cell;
+import dev.message.payload.CellPool;
+import dev.models.enums.RelayCryptoMode;
+import dev.utils.CipherContext.Direction;
+import dev.utils.Crypto;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// One data cell through the OnionLayers of a circuit, for both relay crypto modes. wrap is what the client does
+// before sending: seal for the exit, then add every other hop's layer. trip adds what the hops do on the way: each
+// relay removes its layer and the exit opens the cell, digest check included. Peeling costs trip minus wrap. Lives in
+// dev.network because OnionLayer is package private.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnionBenchmark {
+    @Param({"GCM", "STREAM"})
+    public RelayCryptoMode mode;
+
+    @Param({"1", "3", "5"})
+    public int layers;
+
+    // max is the largest payload one cell of such a circuit carries
+    @Param({"64", "max"})
+    public String payloadSize;
+
+    private final UUID circuitId = UUID.randomUUID();
+    private final CellPool cellPool = new CellPool(64, false);
+    // The client's layers and, from the same keys, the layer each hop holds
+    private OnionLayer[] client;
+    private OnionLayer[] hops;
+    private ByteBuffer payload;
+
+    @Setup
+    public void setup() {
+        Crypto crypto = new Crypto();
+        Random random = new Random(42);
+        client = new OnionLayer[layers];
+        hops = new OnionLayer[layers];
+        for (int i = 0; i < layers; i++) {
+            byte[] secret = new byte[32];
+            random.nextBytes(secret);
+            byte[] sessionKey = crypto.deriveAESKey(secret);
+            client[i] = OnionLayer.of(mode, sessionKey, cellPool);
+            hops[i] = OnionLayer.of(mode, sessionKey, cellPool);
+        }
+
+        int size = payloadSize.equals("max") ? OnionLayer.maxPayload(mode, layers) : Integer.parseInt(payloadSize);
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        payload = ByteBuffer.wrap(bytes);
+    }
+
+    @Benchmark
+    public int wrap() {
+        Cell cell = wrapCell();
+        int length = cell.getBodyLength();
+        cell.release();
+        return length;
+    }
+
+    @Benchmark
+    public int trip() {
+        Cell cell = wrapCell();
+        for (int i = 0; i < layers - 1; i++) cell = hops[i].remove(cell, Direction.FORWARD);
+        cell = hops[layers - 1].open(cell, Direction.FORWARD);
+        int length = cell.getBodyLength();
+        cell.release();
+        return length;
+    }
+
+    private Cell wrapCell() {
+        Cell cell = client[layers - 1].seal(circuitId, payload.rewind(), Direction.FORWARD);
+        for (int i = layers - 2; i >= 0; i--) cell = client[i].add(cell, Direction.FORWARD);
+        return cell;
+    }
+}
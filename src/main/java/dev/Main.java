@@ -1,20 +1,22 @@
 package dev;
 
+import dev.models.enums.TransportMode;
 import dev.network.MessageQueue;
 import dev.network.NetworkManager;
+import dev.network.NioServer;
 import dev.network.Server;
+import dev.network.Transport;
 import dev.protocol.InputHandler;
 import dev.protocol.MessageHandler;
 import dev.utils.Config;
+import dev.utils.ExecutorFactory;
 import dev.utils.Logger;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 public class Main {
     private final Logger logger;
     private final Config config;
-    private final Server server;
+    private final ExecutorFactory executorFactory;
+    private final Transport transport;
     private final NetworkManager networkManager;
     private final MessageHandler messageHandler;
     private final InputHandler inputHandler;
@@ -23,11 +25,12 @@ public class Main {
     public Main(String arg) {
         this.logger = Logger.getLogger(Main.class);
         this.config = Config.load(arg);
-        MessageQueue queue = new MessageQueue();
-        this.messageHandler = new MessageHandler(queue);
-        ExecutorService executor = Executors.newCachedThreadPool();
-        this.networkManager = new NetworkManager(config, messageHandler, queue, executor);
-        this.server = new Server(config, queue, networkManager, executor);
+        this.executorFactory = new ExecutorFactory(config);
+        MessageQueue queue = new MessageQueue(config);
+        this.messageHandler = new MessageHandler(queue, config);
+        this.networkManager = new NetworkManager(config, messageHandler, queue, executorFactory);
+        this.transport = createTransport(queue);
+        this.networkManager.setTransport(transport);
         this.inputHandler = new InputHandler(networkManager.getCircuitManager());
     }
 
@@ -35,9 +38,16 @@ public class Main {
         new Main(args.length == 1 ? args[0] : "node.peer.properties").startNetwork();
     }
 
+    private Transport createTransport(MessageQueue queue) {
+        if (config.getTransportMode() == TransportMode.NIO)
+            return new NioServer(config, queue, networkManager);
+
+        return new Server(config, queue, networkManager, executorFactory.newPeerExecutor());
+    }
+
     private void startNetwork() {
-        logger.info("Starting network on port: {}...", config.getNodePort());
-        this.server.start();
+        logger.info("Starting network on port: {} using {} transport and {} threads...", config.getNodePort(), config.getTransportMode(), config.getExecutionMode());
+        this.transport.start();
         this.messageHandler.start();
         this.networkManager.start();
         this.inputHandler.start();
@@ -0,0 +1,228 @@
+package dev.message;
+
+import dev.message.payload.*;
+import dev.models.PeerInfo;
+import dev.models.enums.MessageType;
+import dev.models.enums.WireFormat;
+import dev.utils.CustomException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary payload encoding, one {@link PayloadCodec} per {@link MessageType}. Integers are big-endian and fixed
+ * width, ports are unsigned shorts, keys are the raw X.509 bytes behind their Base64 form and strings are UTF-8
+ * with a length prefix. Circuit messages are raw {@link Cell}s.
+ */
+public class BinaryCodec {
+    private static final WireFormat[] WIRE_FORMATS = WireFormat.values();
+    private static final Map<MessageType, PayloadCodec> CODECS = new EnumMap<>(MessageType.class);
+
+    static {
+        CODECS.put(MessageType.HANDSHAKE, new HandshakeCodec());
+        CODECS.put(MessageType.PEER_DISCOVERY_REQUEST, new PeerDigestCodec());
+        CODECS.put(MessageType.PEER_DISCOVERY_RESPONSE, new PeerResponseCodec());
+        for (MessageType messageType : MessageType.values())
+            if (messageType.isCircuitCell()) CODECS.put(messageType, new CellCodec());
+    }
+
+    interface PayloadCodec {
+        int size(MessagePayload payload);
+
+        void encode(MessagePayload payload, ByteBuffer out);
+
+        MessagePayload decode(ByteBuffer in, CellPool cellPool);
+    }
+
+    static int payloadSize(MessageType messageType, MessagePayload payload) {
+        return codec(messageType).size(payload);
+    }
+
+    static void encodePayload(MessageType messageType, MessagePayload payload, ByteBuffer out) {
+        codec(messageType).encode(payload, out);
+    }
+
+    static MessagePayload decodePayload(MessageType messageType, ByteBuffer in, CellPool cellPool) {
+        return codec(messageType).decode(in, cellPool);
+    }
+
+    // Decodes a payload that was kept as raw bytes, see Message#getEncodedPayload. Never a cell.
+    public static MessagePayload decodePayload(MessageType messageType, byte[] encodedPayload) {
+        ByteBuffer in = ByteBuffer.wrap(encodedPayload);
+        MessagePayload payload = codec(messageType).decode(in, null);
+        if (in.hasRemaining())
+            throw new CustomException(in.remaining() + " trailing bytes in " + messageType + " payload", null);
+        return payload;
+    }
+
+    private static PayloadCodec codec(MessageType messageType) {
+        PayloadCodec codec = CODECS.get(messageType);
+        if (codec == null) throw new CustomException("No binary codec for " + messageType, null);
+        return codec;
+    }
+
+    // ==================== FIELDS ====================
+
+    public static int keySize(String base64Key) {
+        int length = base64Key.length();
+        int padding = base64Key.endsWith("==") ? 2 : base64Key.endsWith("=") ? 1 : 0;
+        return Short.BYTES + length / 4 * 3 - padding;
+    }
+
+    public static void putKey(ByteBuffer out, String base64Key) {
+        byte[] key = Base64.getDecoder().decode(base64Key);
+        out.putShort((short) key.length);
+        out.put(key);
+    }
+
+    public static String getKey(ByteBuffer in) {
+        return Base64.getEncoder().encodeToString(getBytes(in));
+    }
+
+    public static void putBytes(ByteBuffer out, byte[] bytes) {
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    public static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return bytes;
+    }
+
+    public static int peerInfoSize(PeerInfo peerInfo) {
+        return keySize(peerInfo.getPublicKey()) + 1 + peerInfo.getHost().length() + Short.BYTES;
+    }
+
+    // Host names and IP literals are ASCII, so their length in chars is their length in bytes
+    public static void putPeerInfo(ByteBuffer out, PeerInfo peerInfo) {
+        putKey(out, peerInfo.getPublicKey());
+        out.put((byte) peerInfo.getHost().length());
+        out.put(peerInfo.getHost().getBytes(StandardCharsets.US_ASCII));
+        out.putShort((short) (int) peerInfo.getPort());
+    }
+
+    public static PeerInfo getPeerInfo(ByteBuffer in) {
+        String publicKey = getKey(in);
+        int hostLength = in.get() & 0xFF;
+        String host = new String(in.array(), in.arrayOffset() + in.position(), hostLength, StandardCharsets.US_ASCII);
+        in.position(in.position() + hostLength);
+        int port = in.getShort() & 0xFFFF;
+        return new PeerInfo(publicKey, host, port);
+    }
+
+    // ==================== CODECS ====================
+
+    private static class HandshakeCodec implements PayloadCodec {
+        @Override
+        public int size(MessagePayload payload) {
+            return keySize(((HandshakePayload) payload).getPublicKeyBase64Encoded()) + Short.BYTES + 1;
+        }
+
+        @Override
+        public void encode(MessagePayload payload, ByteBuffer out) {
+            HandshakePayload hp = (HandshakePayload) payload;
+            putKey(out, hp.getPublicKeyBase64Encoded());
+            out.putShort((short) hp.getPort());
+            out.put((byte) hp.getWireFormat().ordinal());
+        }
+
+        @Override
+        public MessagePayload decode(ByteBuffer in, CellPool cellPool) {
+            String publicKey = getKey(in);
+            int port = in.getShort() & 0xFFFF;
+            int wireFormat = in.get();
+            if (wireFormat < 0 || wireFormat >= WIRE_FORMATS.length)
+                throw new CustomException("Unknown wire format in handshake: " + wireFormat, null);
+            return new HandshakePayload(publicKey, port, WIRE_FORMATS[wireFormat]);
+        }
+    }
+
+    // [int peerCount][long setHash][long seed][byte reciprocate][short words][long bloom word...]
+    private static class PeerDigestCodec implements PayloadCodec {
+        private static final int FIXED_SIZE = Integer.BYTES + 2 * Long.BYTES + 1 + Short.BYTES;
+
+        @Override
+        public int size(MessagePayload payload) {
+            if (payload == null) return 0;
+            return FIXED_SIZE + ((PeerDigestPayload) payload).getBloom().length * Long.BYTES;
+        }
+
+        @Override
+        public void encode(MessagePayload payload, ByteBuffer out) {
+            if (payload == null) return;
+            PeerDigestPayload digest = (PeerDigestPayload) payload;
+            out.putInt(digest.getPeerCount());
+            out.putLong(digest.getSetHash());
+            out.putLong(digest.getSeed());
+            out.put((byte) (digest.isReciprocate() ? 1 : 0));
+            out.putShort((short) digest.getBloom().length);
+            for (long word : digest.getBloom()) out.putLong(word);
+        }
+
+        @Override
+        public MessagePayload decode(ByteBuffer in, CellPool cellPool) {
+            // Nodes that predate digests ask with an empty payload
+            if (!in.hasRemaining()) return null;
+            int peerCount = in.getInt();
+            long setHash = in.getLong();
+            long seed = in.getLong();
+            boolean reciprocate = in.get() != 0;
+            long[] bloom = new long[in.getShort() & 0xFFFF];
+            for (int i = 0; i < bloom.length; i++) bloom[i] = in.getLong();
+            return new PeerDigestPayload(peerCount, setHash, seed, reciprocate, bloom);
+        }
+    }
+
+    private static class PeerResponseCodec implements PayloadCodec {
+        @Override
+        public int size(MessagePayload payload) {
+            int size = Short.BYTES;
+            for (PeerInfo peerInfo : ((PeerResponsePayload) payload).getPeerList()) size += peerInfoSize(peerInfo);
+            return size;
+        }
+
+        @Override
+        public void encode(MessagePayload payload, ByteBuffer out) {
+            List<PeerInfo> peers = ((PeerResponsePayload) payload).getPeerList();
+            out.putShort((short) peers.size());
+            for (PeerInfo peerInfo : peers) putPeerInfo(out, peerInfo);
+        }
+
+        @Override
+        public MessagePayload decode(ByteBuffer in, CellPool cellPool) {
+            int peerCount = in.getShort() & 0xFFFF;
+            List<PeerInfo> peers = new ArrayList<>(peerCount);
+            for (int i = 0; i < peerCount; i++) peers.add(getPeerInfo(in));
+            return new PeerResponsePayload(peers);
+        }
+    }
+
+    private static class CellCodec implements PayloadCodec {
+        @Override
+        public int size(MessagePayload payload) {
+            return Cell.SIZE;
+        }
+
+        @Override
+        public void encode(MessagePayload payload, ByteBuffer out) {
+            out.put(((Cell) payload).wire());
+        }
+
+        @Override
+        public MessagePayload decode(ByteBuffer in, CellPool cellPool) {
+            if (in.remaining() != Cell.SIZE)
+                throw new CustomException("Expected a " + Cell.SIZE + " byte cell, got " + in.remaining() + " bytes", null);
+
+            Cell cell = cellPool.acquire();
+            cell.readFrom(in.array(), in.arrayOffset() + in.position());
+            in.position(in.position() + Cell.SIZE);
+            return cell;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package dev.message;
+
+import dev.message.payload.Cell;
+import dev.message.payload.CellPool;
+import dev.models.Message;
+import dev.models.enums.MessageType;
+import dev.models.enums.WireFormat;
+import dev.utils.CustomException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary frame layout, all integers big-endian:
+ * <pre>
+ * [int length][byte type][long timestamp][long idPrefix][long idSequence][payload bytes]
+ * </pre>
+ * {@code length} counts every byte after the length field itself. Payloads are encoded by {@link BinaryCodec};
+ * circuit messages carry exactly one {@link Cell}, so their frames always end with {@link Cell#SIZE} raw cell bytes.
+ */
+public class FrameCodec {
+    public static final int LENGTH_FIELD_SIZE = 4;
+
+    private static final int HEADER_SIZE = LENGTH_FIELD_SIZE + 1 + 3 * Long.BYTES;
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    // A cell is written straight from its buffer after the frame header, so it must not be released until the
+    // returned buffers have been written
+    public static ByteBuffer[] encode(Message message, WireFormat wireFormat) {
+        if (wireFormat == WireFormat.TEXT)
+            return new ByteBuffer[]{ByteBuffer.wrap((MessageSerializer.serialize(message) + "\n").getBytes(StandardCharsets.UTF_8))};
+
+        if (message.getPayload() instanceof Cell cell) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            putHeader(header, message, Cell.SIZE);
+            return new ByteBuffer[]{header.flip(), cell.wire()};
+        }
+
+        // A payload nobody looked at is forwarded exactly as it arrived
+        byte[] encodedPayload = message.getEncodedPayload();
+        int payloadLength = encodedPayload != null
+                ? encodedPayload.length
+                : BinaryCodec.payloadSize(message.getMessageType(), message.getPayload());
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+        putHeader(buffer, message, payloadLength);
+        if (encodedPayload != null) buffer.put(encodedPayload);
+        else BinaryCodec.encodePayload(message.getMessageType(), message.getPayload(), buffer);
+        return new ByteBuffer[]{buffer.flip()};
+    }
+
+    private static void putHeader(ByteBuffer buffer, Message message, int payloadLength) {
+        buffer.putInt(HEADER_SIZE - LENGTH_FIELD_SIZE + payloadLength);
+        buffer.put((byte) message.getMessageType().ordinal());
+        buffer.putLong(message.getTimestamp());
+        buffer.putLong(message.getIdPrefix());
+        buffer.putLong(message.getIdSequence());
+    }
+
+    // Decodes the frame body that starts at offset, i.e. everything after the length field. Only the header and,
+    // for circuit messages, the cell are parsed. The bytes are copied out, so the caller may reuse the array.
+    public static Message decode(byte[] frame, int offset, int length, CellPool cellPool) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame, offset, length);
+
+        int type = buffer.get();
+        if (type < 0 || type >= MESSAGE_TYPES.length)
+            throw new CustomException("Unknown message type in frame: " + type, null);
+
+        MessageType messageType = MESSAGE_TYPES[type];
+        long timestamp = buffer.getLong();
+        long idPrefix = buffer.getLong();
+        long idSequence = buffer.getLong();
+
+        // Cells are copied into the pool straight away, the frame array is reused. Everything else stays opaque
+        // until a handler reads the payload.
+        if (messageType.isCircuitCell())
+            return new Message(messageType, timestamp, idPrefix, idSequence, BinaryCodec.decodePayload(messageType, buffer, cellPool));
+
+        byte[] encodedPayload = new byte[buffer.remaining()];
+        buffer.get(encodedPayload);
+        return Message.withEncodedPayload(messageType, timestamp, idPrefix, idSequence, encodedPayload);
+    }
+}
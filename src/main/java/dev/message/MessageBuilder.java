@@ -3,28 +3,30 @@ package dev.message;
 import dev.message.payload.*;
 import dev.models.enums.MessageType;
 import dev.models.Message;
+import dev.models.enums.WireFormat;
 import dev.models.PeerInfo;
 
 import java.util.List;
-import java.util.UUID;
 
 public class MessageBuilder {
 
-    public static Message buildHandshakeMessage(String senderPublicKeyEncoded, int port) {
+    public static Message buildHandshakeMessage(String senderPublicKeyEncoded, int port, WireFormat wireFormat) {
         return new Message(
                 MessageType.HANDSHAKE,
                 System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
-                new HandshakePayload(senderPublicKeyEncoded, port)
+                MessageIds.NODE_PREFIX,
+                MessageIds.nextSequence(),
+                new HandshakePayload(senderPublicKeyEncoded, port, wireFormat)
         );
     }
 
-    public static Message buildPeerRequestMessage() {
+    public static Message buildPeerRequestMessage(PeerDigestPayload digest) {
         return new Message(
                 MessageType.PEER_DISCOVERY_REQUEST,
                 System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
-                null
+                MessageIds.NODE_PREFIX,
+                MessageIds.nextSequence(),
+                digest
         );
     }
 
@@ -32,44 +34,47 @@ public class MessageBuilder {
         return new Message(
                 MessageType.PEER_DISCOVERY_RESPONSE,
                 System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
+                MessageIds.NODE_PREFIX,
+                MessageIds.nextSequence(),
                 new PeerResponsePayload(peerList)
         );
     }
 
-    public static Message buildCircuitCreateMessageRequest(UUID circuitId, String secretKey) {
-        return new Message(
-                MessageType.CIRCUIT_CREATE_REQUEST,
-                System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
-                new CircuitCreatePayload(circuitId, secretKey)
-        );
+    public static Message buildCircuitCreateMessageRequest(Cell cell) {
+        return buildCellMessage(MessageType.CIRCUIT_CREATE_REQUEST, cell);
     }
 
-    public static Message buildCircuitCreateMessageResponse(UUID circuitId, String secretKey) {
-        return new Message(
-                MessageType.CIRCUIT_CREATE_RESPONSE,
-                System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
-                new CircuitCreatePayload(circuitId, secretKey)
-        );
+    public static Message buildCircuitCreateMessageResponse(Cell cell) {
+        return buildCellMessage(MessageType.CIRCUIT_CREATE_RESPONSE, cell);
     }
 
-    public static Message buildCircuitExtendMessageRequest(UUID circuitId, byte[] data) {
-        return new Message(
-                MessageType.CIRCUIT_EXTEND_REQUEST,
-                System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
-                new CircuitExtendPayloadEncrypted(circuitId, data)
-        );
+    public static Message buildCircuitExtendMessageRequest(Cell cell) {
+        return buildCellMessage(MessageType.CIRCUIT_EXTEND_REQUEST, cell);
+    }
+
+    public static Message buildCircuitExtendMessageResponse(Cell cell) {
+        return buildCellMessage(MessageType.CIRCUIT_EXTEND_RESPONSE, cell);
+    }
+
+    public static Message buildCircuitDataMessage(Cell cell) {
+        return buildCellMessage(MessageType.DATA_TRANSFER, cell);
+    }
+
+    public static Message buildCircuitSendmeMessage(Cell cell) {
+        return buildCellMessage(MessageType.CIRCUIT_SENDME, cell);
+    }
+
+    public static Message buildCircuitDestroyMessage(Cell cell) {
+        return buildCellMessage(MessageType.CIRCUIT_DESTROY, cell);
     }
 
-    public static Message buildCircuitExtendMessageResponse(UUID circuitId, byte[] data) {
+    private static Message buildCellMessage(MessageType messageType, Cell cell) {
         return new Message(
-                MessageType.CIRCUIT_EXTEND_RESPONSE,
+                messageType,
                 System.currentTimeMillis(),
-                UUID.randomUUID().toString(),
-                new CircuitExtendPayloadEncrypted(circuitId, data)
+                MessageIds.NODE_PREFIX,
+                MessageIds.nextSequence(),
+                cell
         );
     }
 }
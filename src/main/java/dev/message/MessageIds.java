@@ -0,0 +1,36 @@
+package dev.message;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A message id is a random prefix drawn once per node plus a sequence number, so ids stay unique across nodes
+// without touching SecureRandom or allocating for every message
+public class MessageIds {
+    public static final long NODE_PREFIX = new SecureRandom().nextLong();
+    private static final AtomicLong sequence = new AtomicLong(0);
+
+    public static long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    public static String format(long prefix, long sequence) {
+        return Long.toHexString(prefix) + "-" + Long.toHexString(sequence);
+    }
+
+    // Text nodes from before prefix ids send a random UUID. Its two halves keep the id just as unique, so it is read as
+    // prefix and sequence too.
+    public static long parsePrefix(String messageId) {
+        if (isUuid(messageId)) return UUID.fromString(messageId).getMostSignificantBits();
+        return Long.parseUnsignedLong(messageId, 0, messageId.indexOf('-'), 16);
+    }
+
+    public static long parseSequence(String messageId) {
+        if (isUuid(messageId)) return UUID.fromString(messageId).getLeastSignificantBits();
+        return Long.parseUnsignedLong(messageId, messageId.indexOf('-') + 1, messageId.length(), 16);
+    }
+
+    private static boolean isUuid(String messageId) {
+        return messageId.length() == 36 && messageId.charAt(8) == '-';
+    }
+}
@@ -4,15 +4,19 @@ import dev.message.payload.*;
 import dev.models.enums.MessageType;
 import dev.models.Message;
 import dev.models.PeerInfo;
+import dev.models.enums.WireFormat;
 import dev.utils.CustomException;
 import dev.utils.Logger;
 
+import java.nio.ByteBuffer;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
 public class MessageSerializer {
     private static final String delimiter = ";delim;;;;";
+    private static final Pattern delimiterPattern = Pattern.compile(Pattern.quote(delimiter));
 
     public static String serialize(Message message) {
         return message.getMessageType() + delimiter +
@@ -21,17 +25,23 @@ public class MessageSerializer {
                 serializePayload(message.getMessageType(), message.getPayload());
     }
 
-    private static String serializePayload(MessageType messageType, MessagePayload payload) {
+    static String serializePayload(MessageType messageType, MessagePayload payload) {
         switch (messageType) {
 
             case HANDSHAKE -> {
                 if (!(payload instanceof HandshakePayload hp))
                     throw new CustomException("Expected HandshakePayload", null);
-                return hp.getPublicKeyBase64Encoded() + ":" + hp.getPort();
+                return hp.getPublicKeyBase64Encoded() + ":" + hp.getPort() + ":" + hp.getWireFormat();
             }
 
             case PEER_DISCOVERY_REQUEST -> {
-                return "";
+                if (!(payload instanceof PeerDigestPayload digest))
+                    throw new CustomException("Expected PeerDigestPayload", null);
+
+                ByteBuffer bloom = ByteBuffer.allocate(digest.getBloom().length * Long.BYTES);
+                bloom.asLongBuffer().put(digest.getBloom());
+                return digest.getPeerCount() + ":" + digest.getSetHash() + ":" + digest.getSeed() + ":" +
+                        digest.isReciprocate() + ":" + Base64.getEncoder().encodeToString(bloom.array());
             }
 
             case PEER_DISCOVERY_RESPONSE -> {
@@ -54,19 +64,12 @@ public class MessageSerializer {
                 return sb.toString();
             }
 
-            case CIRCUIT_CREATE_REQUEST, CIRCUIT_CREATE_RESPONSE -> {
-                if (!(payload instanceof CircuitCreatePayload ccr)) {
-                    throw new CustomException("Expected CircuitCreatePayload", null);
-                }
-                return ccr.getCircuitId().toString() + "@" + ccr.getEphemeralKey();
-            }
-
-            case CIRCUIT_EXTEND_REQUEST, CIRCUIT_EXTEND_RESPONSE -> {
-                if (!(payload instanceof CircuitExtendPayloadEncrypted cer)) {
-                    throw new CustomException("Expected CircuitExtendEncryptedPayload", null);
+            // The body of a CREATE cell is the raw ephemeral key, so both kinds read as circuitId@base64 like before
+            case CIRCUIT_CREATE_REQUEST, CIRCUIT_CREATE_RESPONSE, CIRCUIT_EXTEND_REQUEST, CIRCUIT_EXTEND_RESPONSE, CIRCUIT_SENDME, DATA_TRANSFER, CIRCUIT_DESTROY -> {
+                if (!(payload instanceof Cell cell)) {
+                    throw new CustomException("Expected Cell", null);
                 }
-                String base64Data = java.util.Base64.getEncoder().encodeToString(cer.getEncryptedData());
-                return cer.getCircuitId().toString() + "@" + base64Data;
+                return cell.getCircuitId().toString() + "@" + Base64.getEncoder().encodeToString(cell.getBody());
             }
 
             default -> throw new CustomException("Unexpected value: " + payload, null);
@@ -76,33 +79,44 @@ public class MessageSerializer {
     public static Message deserialize(String rawString) {
         if (rawString == null || rawString.isEmpty()) return null;
 
-        String[] parts = rawString.split(Pattern.quote(delimiter), -1);
+        String[] parts = delimiterPattern.split(rawString, -1);
 
         MessageType messageType = MessageType.valueOf(parts[0]);
         long timestamp = Long.parseLong(parts[1]);
         String messageId = parts[2];
+        long idPrefix = MessageIds.parsePrefix(messageId);
+        long idSequence = MessageIds.parseSequence(messageId);
         MessagePayload payload = deserializePayload(messageType, parts[3]);
 
         return new Message(
                 messageType,
                 timestamp,
-                messageId,
+                idPrefix,
+                idSequence,
                 payload
         );
     }
 
-    private static MessagePayload deserializePayload(MessageType messageType, String rawPayload) {
+    static MessagePayload deserializePayload(MessageType messageType, String rawPayload) {
         if (rawPayload == null || rawPayload.isEmpty()) return null;
 
         switch (messageType) {
 
             case HANDSHAKE -> {
                 String[] parts = rawPayload.split(":");
-                return new HandshakePayload(parts[0], Integer.parseInt(parts[1]));
+                WireFormat wireFormat = parts.length > 2 ? WireFormat.valueOf(parts[2]) : WireFormat.TEXT;
+                return new HandshakePayload(parts[0], Integer.parseInt(parts[1]), wireFormat);
             }
 
             case PEER_DISCOVERY_REQUEST -> {
-                return null;
+                // Nodes that predate digests send no payload, or at least not all of one
+                String[] parts = rawPayload.split(":");
+                if (rawPayload.isBlank() || parts.length < 5) return null;
+                ByteBuffer bloomBytes = ByteBuffer.wrap(Base64.getDecoder().decode(parts[4]));
+                long[] bloom = new long[bloomBytes.remaining() / Long.BYTES];
+                bloomBytes.asLongBuffer().get(bloom);
+                return new PeerDigestPayload(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]), Boolean.parseBoolean(parts[3]), bloom);
             }
 
             case PEER_DISCOVERY_RESPONSE -> {
@@ -122,18 +136,10 @@ public class MessageSerializer {
                 return new PeerResponsePayload(peerList);
             }
 
-            case CIRCUIT_CREATE_REQUEST, CIRCUIT_CREATE_RESPONSE -> {
-                String[] ccrParts = rawPayload.split("@");
-                UUID circuitId = UUID.fromString(ccrParts[0]);
-                String secretKey = ccrParts[1];
-                return new CircuitCreatePayload(circuitId, secretKey);
-            }
-
-            case CIRCUIT_EXTEND_REQUEST, CIRCUIT_EXTEND_RESPONSE -> {
+            case CIRCUIT_CREATE_REQUEST, CIRCUIT_CREATE_RESPONSE, CIRCUIT_EXTEND_REQUEST, CIRCUIT_EXTEND_RESPONSE, CIRCUIT_SENDME, DATA_TRANSFER, CIRCUIT_DESTROY -> {
                 String[] parts = rawPayload.split("@", 2);
                 UUID circuitId = UUID.fromString(parts[0]);
-                byte[] encryptedData = java.util.Base64.getDecoder().decode(parts[1]);
-                return new CircuitExtendPayloadEncrypted(circuitId, encryptedData);
+                return Cell.of(circuitId, Base64.getDecoder().decode(parts[1]));
             }
 
             default -> throw new CustomException("Unexpected value: " + messageType, null);
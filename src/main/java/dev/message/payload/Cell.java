@@ -0,0 +1,109 @@
+package dev.message.payload;
+
+import dev.utils.CustomException;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Fixed-size unit of all circuit traffic. Every cell is {@link #SIZE} bytes on the wire whatever its body length,
+ * so relays see constant-size messages and can recycle the buffers through a {@link CellPool}.
+ * <pre>
+ * [long circuitIdMsb][long circuitIdLsb][short bodyLength][body, zero padded up to SIZE]
+ * </pre>
+ * A cell has a single owner. Whoever takes it out of a message either hands it on (by sending it) or calls
+ * {@link #release()}; a cell that is never released is simply garbage collected.
+ */
+public class Cell extends MessagePayload {
+    public static final int SIZE = 512;
+    public static final int HEADER_SIZE = 2 * Long.BYTES + Short.BYTES;
+    public static final int MAX_BODY_SIZE = SIZE - HEADER_SIZE;
+
+    private static final int BODY_LENGTH_OFFSET = 2 * Long.BYTES;
+    private static final byte[] PADDING = new byte[MAX_BODY_SIZE];
+
+    private final CellPool pool;
+    private final ByteBuffer buffer;
+    // Created once and reset on every call, so exposing the body or the wire bytes does not allocate
+    private final ByteBuffer bodyView;
+    private final ByteBuffer wireView;
+    boolean isFree;
+
+    Cell(CellPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.bodyView = buffer.duplicate();
+        this.wireView = buffer.duplicate();
+    }
+
+    // Unpooled cell, used by the text codec and by callers that hold no pool
+    public static Cell of(UUID circuitId, byte[] body) {
+        Cell cell = new Cell(null, ByteBuffer.allocate(SIZE));
+        cell.setCircuitId(circuitId);
+        cell.setBody(body);
+        return cell;
+    }
+
+    public UUID getCircuitId() {
+        return new UUID(buffer.getLong(0), buffer.getLong(Long.BYTES));
+    }
+
+    public void setCircuitId(UUID circuitId) {
+        buffer.putLong(0, circuitId.getMostSignificantBits());
+        buffer.putLong(Long.BYTES, circuitId.getLeastSignificantBits());
+    }
+
+    public int getBodyLength() {
+        return buffer.getShort(BODY_LENGTH_OFFSET) & 0xFFFF;
+    }
+
+    // Also zeroes the padding, a recycled buffer must never leak the previous cell's bytes onto the wire
+    public void setBodyLength(int length) {
+        if (length < 0 || length > MAX_BODY_SIZE)
+            throw new CustomException("Cell body of " + length + " bytes exceeds " + MAX_BODY_SIZE + " bytes", null);
+
+        buffer.putShort(BODY_LENGTH_OFFSET, (short) length);
+        buffer.put(HEADER_SIZE + length, PADDING, 0, MAX_BODY_SIZE - length);
+    }
+
+    public byte[] getBody() {
+        byte[] body = new byte[getBodyLength()];
+        buffer.get(HEADER_SIZE, body);
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        if (body.length > MAX_BODY_SIZE)
+            throw new CustomException("Cell body of " + body.length + " bytes exceeds " + MAX_BODY_SIZE + " bytes", null);
+
+        buffer.put(HEADER_SIZE, body);
+        setBodyLength(body.length);
+    }
+
+    // Current body, positioned for reading
+    public ByteBuffer body() {
+        bodyView.clear().position(HEADER_SIZE).limit(HEADER_SIZE + getBodyLength());
+        return bodyView;
+    }
+
+    // Whole body area, positioned for writing. Call setBodyLength with the number of bytes written.
+    public ByteBuffer bodyForWrite() {
+        bodyView.clear().position(HEADER_SIZE);
+        return bodyView;
+    }
+
+    // All SIZE bytes, as they go on the wire
+    public ByteBuffer wire() {
+        return wireView.clear();
+    }
+
+    public void readFrom(byte[] src, int offset) {
+        buffer.put(0, src, offset, SIZE);
+        if (getBodyLength() > MAX_BODY_SIZE)
+            throw new CustomException("Invalid cell body length: " + getBodyLength(), null);
+    }
+
+    public void release() {
+        if (pool != null) pool.release(this);
+    }
+}
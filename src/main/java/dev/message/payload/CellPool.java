@@ -0,0 +1,63 @@
+package dev.message.payload;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Recycles cells and their buffers. The pool never tracks cells that are in use: when it runs dry a new cell is
+// allocated, and released cells beyond the capacity are left to the garbage collector.
+public class CellPool {
+    private final BlockingQueue<Cell> free;
+    @Getter
+    private final boolean isDirect;
+
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    public CellPool(int capacity, boolean isDirect) {
+        this.free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.isDirect = isDirect;
+    }
+
+    public Cell acquire() {
+        Cell cell = free.poll();
+        if (cell == null) {
+            allocated.increment();
+            cell = new Cell(this, isDirect ? ByteBuffer.allocateDirect(Cell.SIZE) : ByteBuffer.allocate(Cell.SIZE));
+        } else {
+            reused.increment();
+        }
+        cell.isFree = false;
+        return cell;
+    }
+
+    public Cell acquire(UUID circuitId) {
+        Cell cell = acquire();
+        cell.setCircuitId(circuitId);
+        cell.setBodyLength(0);
+        return cell;
+    }
+
+    // Releasing twice is ignored, otherwise two owners could end up sharing one buffer
+    void release(Cell cell) {
+        if (cell.isFree) return;
+        cell.isFree = true;
+        free.offer(cell);
+    }
+
+    public int getFreeCount() {
+        return free.size();
+    }
+
+    public long getAllocatedCount() {
+        return allocated.sum();
+    }
+
+    public long getReusedCount() {
+        return reused.sum();
+    }
+}
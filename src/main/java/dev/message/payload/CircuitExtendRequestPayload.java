@@ -1,9 +1,11 @@
 package dev.message.payload;
 
+import dev.message.BinaryCodec;
 import dev.models.PeerInfo;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 @Getter
@@ -11,19 +13,23 @@ import java.util.UUID;
 public class CircuitExtendRequestPayload extends MessagePayload {
     private final UUID circuitId;
     private final PeerInfo peerInfo;
-    private final String ephemeralKey;
+    private final byte[] ephemeralKey;
 
+    // [16B circuit id][peer info][short keyLength][raw ephemeral key], see BinaryCodec for the peer info layout
     public byte[] toBytes() {
-        String serialized = circuitId + "|" + peerInfo.serialize() + "|" + ephemeralKey;
-        return serialized.getBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Long.BYTES + BinaryCodec.peerInfoSize(peerInfo) + Short.BYTES + ephemeralKey.length);
+        buffer.putLong(circuitId.getMostSignificantBits());
+        buffer.putLong(circuitId.getLeastSignificantBits());
+        BinaryCodec.putPeerInfo(buffer, peerInfo);
+        BinaryCodec.putBytes(buffer, ephemeralKey);
+        return buffer.array();
     }
 
     public static CircuitExtendRequestPayload fromBytes(byte[] data) {
-        String serialized = new String(data);
-        String[] parts = serialized.split("\\|", 3);
-        UUID id = UUID.fromString(parts[0]);
-        PeerInfo peer = PeerInfo.deserialize(parts[1]);
-        String eph = parts[2];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        UUID id = new UUID(buffer.getLong(), buffer.getLong());
+        PeerInfo peer = BinaryCodec.getPeerInfo(buffer);
+        byte[] eph = BinaryCodec.getBytes(buffer);
         return new CircuitExtendRequestPayload(id, peer, eph);
     }
 }
@@ -1,5 +1,6 @@
 package dev.message.payload;
 
+import dev.models.enums.WireFormat;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -8,4 +9,5 @@ import lombok.Getter;
 public class HandshakePayload extends MessagePayload {
     private final String publicKeyBase64Encoded; // Base64 encoded public key
     private final int port;
+    private final WireFormat wireFormat; // Preferred wire format, TEXT for nodes that do not advertise one
 }
@@ -0,0 +1,18 @@
+package dev.message.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Compact summary of the sender's known peers, see PeerDigest. The receiver answers with only the entries that are
+// missing from the bloom filter, and with nothing at all once both sides have the same set hash.
+@Getter
+@AllArgsConstructor
+public class PeerDigestPayload extends MessagePayload {
+    private final int peerCount;
+    private final long setHash;
+    // Salts the bloom filter, so a false positive in one round does not hide the same peer in the next one
+    private final long seed;
+    // Whether the receiver should send back its own digest, letting the exchange run in both directions
+    private final boolean reciprocate;
+    private final long[] bloom;
+}
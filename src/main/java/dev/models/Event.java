@@ -2,4 +2,9 @@ package dev.models;
 
 import dev.network.Peer;
 
-public record Event(Peer sender, Message message) {}
+// enqueuedAt is System.nanoTime() when the event was handed to the MessageQueue, for its latency metrics
+public record Event(Peer sender, Message message, long enqueuedAt) {
+    public Event(Peer sender, Message message) {
+        this(sender, message, System.nanoTime());
+    }
+}
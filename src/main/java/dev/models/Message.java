@@ -1,24 +1,67 @@
 package dev.models;
 
+import dev.message.BinaryCodec;
+import dev.message.MessageIds;
+import dev.message.payload.Cell;
 import dev.models.enums.MessageType;
 import dev.message.payload.MessagePayload;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.UUID;
+
 @Getter
 @Setter
 @NoArgsConstructor
 public class Message {
     private MessageType messageType;
     private long timestamp;
-    private String messageId;
+    // Sender's node prefix and sequence number, see MessageIds
+    private long idPrefix;
+    private long idSequence;
+    // Parsed eagerly for circuit messages, so routing a message never needs its payload
+    private UUID circuitId;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
     private MessagePayload payload;
+    // Binary payload as received, only decoded once a handler asks for it. Null once decoded.
+    @Setter(AccessLevel.NONE)
+    private byte[] encodedPayload;
 
-    public Message(MessageType messageType, long timestamp, String messageId, MessagePayload payload) {
+    public Message(MessageType messageType, long timestamp, long idPrefix, long idSequence, MessagePayload payload) {
         this.messageType = messageType;
         this.timestamp = timestamp;
-        this.messageId = messageId;
+        this.idPrefix = idPrefix;
+        this.idSequence = idSequence;
+        this.payload = payload;
+        if (payload instanceof Cell cell) this.circuitId = cell.getCircuitId();
+    }
+
+    public static Message withEncodedPayload(MessageType messageType, long timestamp, long idPrefix, long idSequence, byte[] encodedPayload) {
+        Message message = new Message(messageType, timestamp, idPrefix, idSequence, null);
+        message.encodedPayload = encodedPayload;
+        return message;
+    }
+
+    // For logs and the text codec only
+    public String getMessageId() {
+        return MessageIds.format(idPrefix, idSequence);
+    }
+
+    // Not synchronized, a message is only ever handled by one thread at a time
+    public MessagePayload getPayload() {
+        if (encodedPayload != null) {
+            payload = BinaryCodec.decodePayload(messageType, encodedPayload);
+            encodedPayload = null;
+        }
+        return payload;
+    }
+
+    // Relays swap in the re-encrypted cell of the same circuit, so the circuit id is left alone
+    public void setPayload(MessagePayload payload) {
         this.payload = payload;
+        this.encodedPayload = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,8 @@
+package dev.models.enums;
+
+public enum MessageQueueType {
+    // LinkedBlockingQueue per lane, one node allocation and a lock handoff per event
+    LINKED,
+    // Preallocated multi-producer, single-consumer ring per lane
+    RING
+}
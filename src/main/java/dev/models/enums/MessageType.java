@@ -1,5 +1,6 @@
 package dev.models.enums;
 
+// Binary frames carry the ordinal, new types go at the end
 public enum MessageType {
     HANDSHAKE,
 
@@ -8,4 +9,21 @@ public enum MessageType {
     CIRCUIT_CREATE_REQUEST, CIRCUIT_CREATE_RESPONSE, CIRCUIT_EXTEND_REQUEST, CIRCUIT_EXTEND_RESPONSE,
 
     DATA_TRANSFER,
+
+    CIRCUIT_SENDME,
+
+    CIRCUIT_DESTROY;
+
+    // Circuit messages carry a fixed-size Cell instead of a type specific payload
+    public boolean isCircuitCell() {
+        return this == CIRCUIT_CREATE_REQUEST || this == CIRCUIT_CREATE_RESPONSE
+                || this == CIRCUIT_EXTEND_REQUEST || this == CIRCUIT_EXTEND_RESPONSE
+                || this == CIRCUIT_SENDME || this == DATA_TRANSFER || this == CIRCUIT_DESTROY;
+    }
+
+    // A DESTROY queues behind the data cells of its circuit, so none of them is overtaken by it
+    public TrafficClass getTrafficClass() {
+        if (this == DATA_TRANSFER || this == CIRCUIT_DESTROY) return TrafficClass.DATA;
+        return isCircuitCell() ? TrafficClass.CIRCUIT : TrafficClass.CONTROL;
+    }
 }
@@ -0,0 +1,13 @@
+package dev.models.enums;
+
+// What a MessageQueue lane does with a message that arrives while it is full
+public enum OverloadPolicy {
+    // Queue it anyway and stop reading from the sending peer until the lane has drained
+    PAUSE_READING,
+    // Make room by dropping the oldest queued control or circuit setup message, or drop the message itself if there is
+    // none. Data cells and SENDMEs are queued anyway and pause the peer like PAUSE_READING, their number is bounded by
+    // the circuit windows. So are DESTROYs, one per circuit.
+    DROP_OLDEST,
+    // Drop the message and disconnect the sending peer
+    DISCONNECT
+}
@@ -0,0 +1,9 @@
+package dev.models.enums;
+
+// How onion layers are put on circuit cells. Every node of a circuit has to use the same mode.
+public enum RelayCryptoMode {
+    // AES-GCM per layer, every hop authenticates its own layer and each layer adds a nonce and a tag to the cell
+    GCM,
+    // AES-CTR keystream per hop and direction, layers keep the cell size and only the endpoint checks integrity
+    STREAM
+}
@@ -0,0 +1,11 @@
+package dev.models.enums;
+
+// Dispatch priority of a message, highest first
+public enum TrafficClass {
+    // Peer discovery, handled on a lane of its own
+    CONTROL,
+    // Circuit setup and SENDME credit, served before data on the circuit lanes
+    CIRCUIT,
+    // Data cells and the DESTROY that ends a circuit
+    DATA
+}
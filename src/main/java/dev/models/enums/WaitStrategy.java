@@ -0,0 +1,7 @@
+package dev.models.enums;
+
+// How a lane's handler thread waits for events. SPIN and YIELD keep a core busy per lane in exchange for
+// lower hand-off latency, PARK sleeps and costs the producer an unpark.
+public enum WaitStrategy {
+    SPIN, YIELD, PARK
+}
@@ -0,0 +1,5 @@
+package dev.models.enums;
+
+public enum WireFormat {
+    TEXT, BINARY
+}
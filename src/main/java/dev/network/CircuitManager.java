@@ -1,79 +1,199 @@
 package dev.network;
 
-import dev.message.payload.CircuitCreatePayload;
-import dev.message.payload.CircuitExtendPayloadEncrypted;
+import dev.message.payload.Cell;
+import dev.message.payload.CellPool;
 import dev.message.payload.CircuitExtendRequestPayload;
 import dev.models.Message;
 import dev.message.MessageBuilder;
 import dev.models.PeerInfo;
 import dev.models.enums.CircuitType;
+import dev.models.enums.RelayCryptoMode;
+import dev.utils.CipherContext.Direction;
 import dev.utils.Crypto;
 import dev.utils.CustomException;
+import dev.utils.EphemeralKeyPool;
+import dev.utils.KeyAgreementSuite;
 import dev.utils.Logger;
-import lombok.AllArgsConstructor;
-import lombok.Getter;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.util.*;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CircuitManager {
+    // A hop SENDME is this single byte and stays on one link. Circuit credit travels back to the client as a cell
+    // sealed by the exit, with this byte as its payload.
+    private static final byte SENDME_HOP = 0;
+    private static final byte SENDME_CIRCUIT = 1;
+
     private final Logger logger;
     private final NetworkManager networkManager;
-    private final ScheduledExecutorService circuitExecutor;
+    // Builds run concurrently in virtual execution mode, each only touches its own ClientCircuit
+    private final ExecutorService circuitExecutor;
     private final Crypto crypto;
+    private final EphemeralKeyPool keyPool;
+    private final OnionskinQueue onionskins;
+    // Dropped handshakes as of the last report, only touched by logHandshakeStats
+    private long reportedHandshakeDrops;
+    private final CellPool cellPool;
     private final int circuitLength;
-
-    @Getter
-    private UUID myCircuitId;
-    private List<PeerInfo> path;
-    private final Map<Integer, byte[]> keys;
-    private final Map<Integer, KeyPair> pendingKeys;
-    private CircuitType circuitType;
-    private Peer entryPeer;
-
+    private final int windowSize;
+    private final int windowIncrement;
+    private final RelayCryptoMode relayCryptoMode;
+    private final KeyAgreementSuite keyAgreementSuite;
+
+    // Our own circuits, the ones being built included. Requests take turns on the usable ones, retired ones stay until
+    // their data is out.
+    private final Map<UUID, ClientCircuit> clientCircuits;
+    private final AtomicInteger nextCircuit = new AtomicInteger();
+    // Requests that found no usable circuit, sent on the next one to complete. Guards the hand over as well.
+    private final Queue<String> waitingRequests = new ArrayDeque<>();
+    private final int maxWaitingRequests;
+    // Data cells one client circuit may hold back for lack of credit
+    private final int maxPendingCells;
+    private final ScheduledExecutorService poolScheduler;
+    private final int poolSize;
+    private final long maxAgeNanos;
+    private final long buildTimeoutNanos;
+    private final long poolCheckDelayNanos;
+
+    // Circuits we relay for others. Dropped on a DESTROY, once a neighbour on the circuit is gone or after relayIdleTimeout.
     private final Map<UUID, RelayCircuit> relayCircuits;
-    private int currentHop = 0;
+    private final long relayIdleTimeoutNanos;
 
     public CircuitManager(NetworkManager networkManager) {
         this.logger = Logger.getLogger(CircuitManager.class);
         this.networkManager = networkManager;
-        this.circuitExecutor = Executors.newSingleThreadScheduledExecutor();
-        this.crypto = networkManager.getCrypto();
         this.circuitLength = networkManager.getConfig().getCircuitLength();
-        this.circuitType = null;
-        this.keys = new HashMap<>();
-        this.pendingKeys = new HashMap<>();
-        this.relayCircuits = new HashMap<>();
+        this.relayCryptoMode = networkManager.getConfig().getRelayCryptoMode();
+        // Every GCM layer costs room in the fixed size cell, too long a circuit leaves none for data
+        if (OnionLayer.maxPayload(relayCryptoMode, circuitLength) <= 0)
+            throw new CustomException("circuit.length=" + circuitLength + " leaves no room for data in a " + Cell.SIZE
+                    + " byte cell with " + relayCryptoMode.name().toLowerCase() + " relay crypto, use at most "
+                    + (Cell.MAX_BODY_SIZE - 1) / Crypto.AES_OVERHEAD + " hops", null);
+        this.circuitExecutor = networkManager.getExecutorFactory().newTaskExecutor("circuit");
+        this.crypto = networkManager.getCrypto();
+        this.keyAgreementSuite = networkManager.getConfig().getKeyAgreementSuite();
+        this.keyPool = networkManager.getKeyPool(keyAgreementSuite);
+        this.onionskins = new OnionskinQueue(networkManager.getExecutorFactory(),
+                networkManager.getConfig().getCircuitCreateQueueSize(), networkManager.getConfig().getCircuitCreateWorkers());
+        this.cellPool = networkManager.getCellPool();
+        this.windowSize = networkManager.getConfig().getCircuitWindowSize();
+        this.windowIncrement = networkManager.getConfig().getCircuitWindowIncrement();
+        this.clientCircuits = new ConcurrentHashMap<>();
+        this.relayCircuits = new ConcurrentHashMap<>();
+        this.poolScheduler = networkManager.getExecutorFactory().newScheduler("circuit-pool", 1);
+        this.poolSize = networkManager.getConfig().getCircuitPoolSize();
+        this.maxWaitingRequests = networkManager.getConfig().getCircuitRequestQueueSize();
+        this.maxPendingCells = networkManager.getConfig().getCircuitPendingCells();
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(networkManager.getConfig().getCircuitMaxAgeInSeconds());
+        this.buildTimeoutNanos = TimeUnit.SECONDS.toNanos(networkManager.getConfig().getCircuitBuildTimeoutInSeconds());
+        this.poolCheckDelayNanos = TimeUnit.SECONDS.toNanos(networkManager.getConfig().getCircuitPoolCheckDelayInSeconds());
+        this.relayIdleTimeoutNanos = TimeUnit.SECONDS.toNanos(networkManager.getConfig().getCircuitRelayIdleTimeoutInSeconds());
+    }
+
+    public void start() {
+        poolScheduler.scheduleWithFixedDelay(
+                this::maintainPool,
+                networkManager.getConfig().getCircuitPoolCheckInitialDelayInSeconds(),
+                networkManager.getConfig().getCircuitPoolCheckDelayInSeconds(),
+                TimeUnit.SECONDS);
+        poolScheduler.scheduleWithFixedDelay(
+                this::reapRelayCircuits,
+                networkManager.getConfig().getCircuitPoolCheckDelayInSeconds(),
+                networkManager.getConfig().getCircuitPoolCheckDelayInSeconds(),
+                TimeUnit.SECONDS);
+    }
+
+    // Retires circuits that expired or lost their entry node, gives up on builds that hang and starts as many new
+    // ones as the pool is short of, all at once. Waiting requests need at least one, even with an empty pool. A retired
+    // circuit is torn down along its path once its data is out.
+    private void maintainPool() {
+        long now = System.nanoTime();
+        int ready = 0;
+        for (ClientCircuit circuit : clientCircuits.values()) {
+            if (!circuit.isBuilt()) {
+                if (now - circuit.buildStartedAt > buildTimeoutNanos) {
+                    logger.warn("Building circuit {} timed out at hop {}", circuit.circuitId, circuit.layers.size());
+                    destroyClientCircuit(circuit);
+                } else {
+                    ready++;
+                }
+                continue;
+            }
+
+            if (!circuit.retired && !circuit.isUsable(now, maxAgeNanos)) {
+                circuit.retired = true;
+                logger.info("Retiring circuit {}, {}", circuit.circuitId, circuit.entryPeer.isClosed() ? "entry node is gone" : "expired");
+            }
+            if (circuit.retired) {
+                synchronized (circuit) {
+                    if (circuit.pendingData.isEmpty() || circuit.entryPeer.isClosed()) destroyClientCircuit(circuit);
+                }
+            } else if (circuit.isUsable(now + poolCheckDelayNanos, maxAgeNanos)) {
+                // One that expires before the next check is replaced now, so requests never find the pool empty
+                ready++;
+            }
+        }
+
+        int wanted = poolSize;
+        synchronized (waitingRequests) {
+            if (!waitingRequests.isEmpty()) wanted = Math.max(wanted, 1);
+        }
+
+        try {
+            if (ready < wanted && availablePeers().size() >= circuitLength)
+                for (int i = ready; i < wanted; i++) init();
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task it would cancel every later check
+            logger.error("Failed to start building a circuit: {}", e.getMessage());
+        }
+    }
+
+    // Forgets one of our circuits and has every hop it reached drop it as well
+    private void destroyClientCircuit(ClientCircuit circuit) {
+        if (!clientCircuits.remove(circuit.circuitId, circuit)) return;
+        Peer entryPeer = circuit.entryPeer;
+        if (entryPeer != null) sendDestroy(entryPeer, circuit.circuitId);
     }
 
+    // Starts building a new circuit, any number of builds may run at the same time
     public void init() {
-        logger.info("Initializing Circuit Manager. There are {} peers connected.", networkManager.getKnownPeers().size());
+        logger.info("Initializing circuit. There are {} peers connected.", networkManager.getKnownPeers().size());
         if (networkManager.getKnownPeers().size() < circuitLength) {
             logger.warn("Not enough connected peers to build circuit");
             return;
         }
 
-        if (this.circuitType == CircuitType.PENDING) {
-            logger.warn("Circuit is already being prepared. Wait a bit...");
+        ClientCircuit circuit = new ClientCircuit(selectRandomPath(), windowSize, windowIncrement);
+        clientCircuits.put(circuit.circuitId, circuit);
+        circuitExecutor.submit(() -> createCircuit(circuit));
+    }
+
+    // For requests that found no usable circuit. Unlike the pool check this starts nothing while a build is under way,
+    // however often it is called.
+    public synchronized void initIfIdle() {
+        if (clientCircuits.values().stream().anyMatch(circuit -> !circuit.isBuilt())) {
+            logger.info("Circuit is already being prepared. Wait a bit...");
             return;
         }
-
-        this.circuitType = CircuitType.PENDING;
-        this.myCircuitId = UUID.randomUUID();
-        this.path = selectRandomPath();
-        this.currentHop = 0;
-
-        circuitExecutor.submit(this::createCircuit);
+        init();
     }
 
-    private List<PeerInfo> selectRandomPath() {
+    private List<PeerInfo> availablePeers() {
         List<PeerInfo> availablePeers = new ArrayList<>(networkManager.getKnownPeers());
-
         availablePeers.removeIf(peer -> peer.getPublicKey().equals(networkManager.getEncodedPublicKey()));
+        return availablePeers;
+    }
+
+    private List<PeerInfo> selectRandomPath() {
+        List<PeerInfo> availablePeers = availablePeers();
 
         if (availablePeers.size() < circuitLength)
             throw new CustomException("Not enough peers for circuit. Have: " + availablePeers.size() + ", Need: " + circuitLength, null);
@@ -82,195 +202,589 @@ public class CircuitManager {
         return availablePeers.subList(0, circuitLength);
     }
 
-    public void createCircuit() {
-        PeerInfo entryPeerInfo = path.getFirst();
-        this.entryPeer = getOrConnectToPeer(entryPeerInfo);
+    private void createCircuit(ClientCircuit circuit) {
+        PeerInfo entryPeerInfo = circuit.path.getFirst();
+        networkManager.connect(entryPeerInfo).whenCompleteAsync((peer, e) -> {
+            if (e != null) {
+                logger.error("Failed to connect to entry node: {}", e.getMessage());
+                clientCircuits.remove(circuit.circuitId);
+                return;
+            }
 
-        if (this.entryPeer == null) {
-            logger.error("Failed to connect to entry node");
-            return;
-        }
+            // Timed out while we were connecting
+            if (clientCircuits.get(circuit.circuitId) != circuit) return;
 
-        KeyPair eph = crypto.generateECDHKeyPair();
-        pendingKeys.put(0, eph);
+            circuit.entryPeer = peer;
+            KeyPair eph = keyPool.take();
+            circuit.pendingKey = eph;
 
-        Message msg = MessageBuilder.buildCircuitCreateMessageRequest(myCircuitId, Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()));
-        this.entryPeer.send(msg);
+            Cell cell = cellPool.acquire(circuit.circuitId);
+            cell.setBody(createOffer(eph));
+            peer.send(MessageBuilder.buildCircuitCreateMessageRequest(cell));
+        }, circuitExecutor);
     }
 
-    private Peer getOrConnectToPeer(PeerInfo peerInfo) {
-        Peer existing = networkManager.getConnectedPeers().get(peerInfo.getPublicKey());
-        if (existing != null) return existing;
+    // The handshake runs on an onionskin worker, the handler thread moves on straight away
+    public void onCircuitCreateRequest(Peer peer, Message message) {
+        Cell cell = (Cell) message.getPayload();
+        UUID circuitId = message.getCircuitId();
 
-        networkManager.connectToPeer(peerInfo.getHost(), peerInfo.getPort());
-
-        int attempts = 0;
-        while (attempts < 30) {
-            try {
-                Thread.sleep(100);
-                Peer peer = networkManager.getConnectedPeers().get(peerInfo.getPublicKey());
-                if (peer != null) return peer;
-                attempts++;
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return null;
-            }
+        // Cells of a circuit built for the other relay crypto mode could never be opened, on either end
+        byte[] body = cell.getBody();
+        if (body.length == 0 || body[0] != relayCryptoMode.ordinal()) {
+            logger.warn("Refused the CREATE of circuit {}, it was not built for {} relay crypto", circuitId, relayCryptoMode);
+            refuseCreate(peer, cell);
+            return;
         }
-        return null;
+
+        byte[] offer = Arrays.copyOfRange(body, 1, body.length);
+        onionskins.submit(() -> answerCreate(peer, circuitId, cell, offer), () -> {
+            logger.debug("Onionskin queue full, dropped the CREATE of circuit {}", circuitId);
+            refuseCreate(peer, cell);
+        });
+    }
+
+    // [byte relay crypto mode][key agreement offer]
+    private byte[] createOffer(KeyPair eph) {
+        byte[] offer = keyAgreementSuite.encodeOffer(eph.getPublic());
+        return ByteBuffer.allocate(1 + offer.length).put((byte) relayCryptoMode.ordinal()).put(offer).array();
     }
 
-    public void onCircuitCreateRequest(Peer peer, UUID circuitId, CircuitCreatePayload payload) {
-        KeyPair ephemeralKeyPair = crypto.generateECDHKeyPair();
-        PublicKey theirEphemeralPublicKey = crypto.decodePublicKey(payload.getEphemeralKey());
+    private void answerCreate(Peer peer, UUID circuitId, Cell cell, byte[] offer) {
+        // We answer in whatever suite the client offered
+        KeyAgreementSuite suite = KeyAgreementSuite.ofOffer(offer);
+        KeyPair ephemeralKeyPair = networkManager.getKeyPool(suite).take();
+        PublicKey theirEphemeralPublicKey = KeyAgreementSuite.decodeOffer(offer);
 
-        byte[] sharedSecret = crypto.performECDH(ephemeralKeyPair.getPrivate(), theirEphemeralPublicKey);
+        byte[] sharedSecret = suite.agree(ephemeralKeyPair.getPrivate(), theirEphemeralPublicKey);
         byte[] sessionKey = crypto.deriveAESKey(sharedSecret);
 
-        relayCircuits.put(circuitId, new RelayCircuit(peer, null, sessionKey));
+        relayCircuits.put(circuitId, new RelayCircuit(peer, OnionLayer.of(relayCryptoMode, sessionKey, cellPool), windowSize, windowIncrement));
 
-        String ourEphemeralKeyBase64 = Base64.getEncoder().encodeToString(ephemeralKeyPair.getPublic().getEncoded());
-        Message response = MessageBuilder.buildCircuitCreateMessageResponse(circuitId, ourEphemeralKeyBase64);
+        // The request cell is answered in place
+        cell.setBody(suite.encode(ephemeralKeyPair.getPublic()));
+        peer.send(MessageBuilder.buildCircuitCreateMessageResponse(cell));
+    }
 
-        peer.send(response);
+    // An empty CREATED tells the client to build through someone else: we are overloaded or run the other relay crypto
+    private void refuseCreate(Peer peer, Cell cell) {
+        cell.setBodyLength(0);
+        peer.send(MessageBuilder.buildCircuitCreateMessageResponse(cell));
     }
 
     public void onCircuitCreateResponse(Peer peer, Message message) {
-        CircuitCreatePayload payload = (CircuitCreatePayload) message.getPayload();
-        UUID circuitId = payload.getCircuitId();
+        Cell cell = (Cell) message.getPayload();
+        UUID circuitId = message.getCircuitId();
 
-        if (!circuitId.equals(this.getMyCircuitId())) {
-            RelayCircuit relay = relayCircuits.get(circuitId);
+        ClientCircuit circuit = clientCircuits.get(circuitId);
+        if (circuit == null) {
+            RelayCircuit relay = activeRelay(circuitId);
             if (relay == null) {
+                // The circuit was torn down before the answer came, the hop that sent it has set it up for nothing
                 logger.warn("Unknown relay circuit {}", circuitId);
+                if (cell.getBodyLength() > 0) sendDestroy(peer, circuitId);
+                cell.release();
                 return;
             }
 
-            byte[] ephemeralBytes = payload.getEphemeralKey().getBytes(StandardCharsets.UTF_8);
-            byte[] encrypted = crypto.encryptAES(ephemeralBytes, relay.sessionKey);
-            Message extended = MessageBuilder.buildCircuitExtendMessageResponse(circuitId, encrypted);
-            relay.previousHop.send(extended);
+            // The next hop answered our CREATE, we are the hop the EXTENDED comes from. An empty answer stays empty.
+            Cell extended = relay.layer.seal(circuitId, cell.body(), Direction.BACKWARD);
+            cell.release();
+            relay.previousHop.send(MessageBuilder.buildCircuitExtendMessageResponse(extended));
             return;
         }
 
-        KeyPair eph = pendingKeys.remove(0);
-        PublicKey theirPub = crypto.decodePublicKey(payload.getEphemeralKey());
-
-        byte[] sharedSecret = crypto.performECDH(eph.getPrivate(), theirPub);
-        byte[] sessionKey = crypto.deriveAESKey(sharedSecret);
+        // Only the entry node answers a CREATE of ours, and only the first handshake
+        KeyPair eph = circuit.pendingKey;
+        if (peer != circuit.entryPeer || !circuit.layers.isEmpty() || eph == null) {
+            logger.warn("Unexpected CREATED for circuit {}", circuitId);
+            cell.release();
+            return;
+        }
+        circuit.pendingKey = null;
+        if (cell.getBodyLength() == 0) {
+            cell.release();
+            abandonBuild(circuit);
+            return;
+        }
+        PublicKey theirPub = keyAgreementSuite.decode(cell.getBody());
+        cell.release();
 
-        keys.put(currentHop, sessionKey);
-        logger.debug("Established session key with hop {}", currentHop);
-        currentHop++;
+        byte[] sharedSecret = keyAgreementSuite.agree(eph.getPrivate(), theirPub);
+        circuit.layers.add(OnionLayer.of(relayCryptoMode, crypto.deriveAESKey(sharedSecret), cellPool));
+        logger.debug("Established session key with hop 0 of circuit {}", circuitId);
+        extendOrComplete(circuit);
+    }
 
-        if (currentHop < circuitLength) {
-            extendToNextHop(currentHop);
+    private void extendOrComplete(ClientCircuit circuit) {
+        if (circuit.layers.size() < circuitLength) {
+            extendToNextHop(circuit);
         } else {
-            circuitType = CircuitType.INITIAL;
-            logger.info("Circuit {} fully established with {} hops!", myCircuitId, circuitLength);
+            completeBuild(circuit);
         }
     }
 
-    private void extendToNextHop(int hop) {
-        logger.info("Extending circuit to hop {}", hop);
-        PeerInfo nextHop = path.get(hop);
+    private void extendToNextHop(ClientCircuit circuit) {
+        List<OnionLayer> layers = circuit.layers;
+        int hop = layers.size();
+        logger.info("Extending circuit {} to hop {}", circuit.circuitId, hop);
+        PeerInfo nextHop = circuit.path.get(hop);
 
-        KeyPair eph = crypto.generateECDHKeyPair();
-        pendingKeys.put(hop, eph);
+        KeyPair eph = keyPool.take();
+        circuit.pendingKey = eph;
 
         CircuitExtendRequestPayload payload = new CircuitExtendRequestPayload(
-                this.getMyCircuitId(),
+                circuit.circuitId,
                 nextHop,
-                Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()));
+                createOffer(eph));
 
-        byte[] encrypted = payload.toBytes();
-        for (int i = hop - 1; i >= 0; i--) encrypted = crypto.encryptAES(encrypted, keys.get(i));
-        Message message = MessageBuilder.buildCircuitExtendMessageRequest(myCircuitId, encrypted);
-        entryPeer.send(message);
+        // Meant for the last hop so far, which makes the CREATE towards the new one
+        Cell cell = layers.get(hop - 1).seal(circuit.circuitId, ByteBuffer.wrap(payload.toBytes()), Direction.FORWARD);
+        for (int i = hop - 2; i >= 0; i--) cell = layers.get(i).add(cell, Direction.FORWARD);
+        circuit.entryPeer.send(MessageBuilder.buildCircuitExtendMessageRequest(cell));
     }
 
     public void onCircuitExtendRequest(Peer peer, Message message) {
-        CircuitExtendPayloadEncrypted payload = (CircuitExtendPayloadEncrypted) message.getPayload();
-        UUID circuitId = payload.getCircuitId();
-        RelayCircuit relay = relayCircuits.get(circuitId);
+        Cell cell = (Cell) message.getPayload();
+        UUID circuitId = message.getCircuitId();
+        RelayCircuit relay = activeRelay(circuitId);
 
         if (relay == null) {
             logger.warn("Received unknown circuit: {}", circuitId);
+            cell.release();
             return;
         }
 
-        byte[] decrypted = crypto.decryptAES(payload.getEncryptedData(), relay.sessionKey);
+        // Peel our layer and pass the same message on
         if (relay.nextHop != null) {
-            Message forwardMessage = MessageBuilder.buildCircuitExtendMessageRequest(circuitId, decrypted);
-            relay.nextHop.send(forwardMessage);
+            message.setPayload(relay.layer.remove(cell, Direction.FORWARD));
+            relay.nextHop.send(message);
             return;
         }
 
-        CircuitExtendRequestPayload extendPayload = CircuitExtendRequestPayload.fromBytes(decrypted);
-        Peer nextPeer = getOrConnectToPeer(extendPayload.getPeerInfo());
-
-        if (nextPeer == null) {
-            logger.error("Failed to connect to next hop. Circuit involved: {}", circuitId);
-            return;
-        }
+        // Connecting may take a while, the handler thread moves on and the CREATE goes out once the hop is registered
+        Cell opened = relay.layer.open(cell, Direction.FORWARD);
+        CircuitExtendRequestPayload extendPayload = CircuitExtendRequestPayload.fromBytes(opened.getBody());
+        opened.release();
+        networkManager.connect(extendPayload.getPeerInfo()).whenComplete((nextPeer, e) -> {
+            // The client learns straight away and builds through someone else
+            if (e != null) {
+                logger.error("Failed to connect to next hop. Circuit involved: {}", circuitId);
+                destroyRelay(circuitId, relay, relay.previousHop);
+                return;
+            }
+            if (relayCircuits.get(circuitId) != relay) return;
 
-        Message createMessage = MessageBuilder.buildCircuitCreateMessageRequest(circuitId, extendPayload.getEphemeralKey());
-        nextPeer.send(createMessage);
-        relay.nextHop = nextPeer;
+            relay.nextHop = nextPeer;
+            Cell create = cellPool.acquire(circuitId);
+            create.setBody(extendPayload.getEphemeralKey());
+            nextPeer.send(MessageBuilder.buildCircuitCreateMessageRequest(create));
+        });
     }
 
     public void onCircuitExtendResponse(Peer peer, Message message) {
-        CircuitExtendPayloadEncrypted payload = (CircuitExtendPayloadEncrypted) message.getPayload();
-        UUID circuitId = payload.getCircuitId();
+        Cell cell = (Cell) message.getPayload();
+        UUID circuitId = message.getCircuitId();
 
-        if (!circuitId.equals(this.getMyCircuitId())) {
-            RelayCircuit relay = relayCircuits.get(circuitId);
+        ClientCircuit circuit = clientCircuits.get(circuitId);
+        if (circuit == null) {
+            RelayCircuit relay = activeRelay(circuitId);
             if (relay == null) {
                 logger.warn("Unknown relay circuit {}", circuitId);
+                sendDestroy(peer, circuitId);
+                cell.release();
                 return;
             }
 
-            byte[] encryptedData = payload.getEncryptedData();
-            byte[] encrypted = crypto.encryptAES(encryptedData, relay.sessionKey);
-            Message extended = MessageBuilder.buildCircuitExtendMessageResponse(circuitId, encrypted);
-            relay.previousHop.send(extended);
+            message.setPayload(relay.layer.add(cell, Direction.BACKWARD));
+            relay.previousHop.send(message);
             return;
         }
 
-        byte[] data = payload.getEncryptedData();
-        for (int i = 0; i < currentHop; i++) data = crypto.decryptAES(data, keys.get(i));
+        KeyPair eph = circuit.pendingKey;
+        if (peer != circuit.entryPeer || circuit.layers.isEmpty() || eph == null) {
+            logger.warn("Unexpected EXTENDED for circuit {}", circuitId);
+            cell.release();
+            return;
+        }
+        circuit.pendingKey = null;
+
+        // Comes from the last hop so far, every hop before it added a layer
+        List<OnionLayer> layers = circuit.layers;
+        int hop = layers.size();
+        for (int i = 0; i < hop - 1; i++) cell = layers.get(i).remove(cell, Direction.BACKWARD);
+        cell = layers.get(hop - 1).open(cell, Direction.BACKWARD);
+        byte[] data = cell.getBody();
+        cell.release();
+
+        if (data.length == 0) {
+            abandonBuild(circuit);
+            return;
+        }
+        PublicKey hopPub = keyAgreementSuite.decode(data);
 
-        String ephemeralKeyBase64 = new String(data, StandardCharsets.UTF_8);
-        KeyPair eph = pendingKeys.remove(currentHop);
-        PublicKey hopPub = crypto.decodePublicKey(ephemeralKeyBase64);
+        byte[] secret = keyAgreementSuite.agree(eph.getPrivate(), hopPub);
+        layers.add(OnionLayer.of(relayCryptoMode, crypto.deriveAESKey(secret), cellPool));
+        logger.info("Established session key with hop {} of circuit {}", hop, circuitId);
+        extendOrComplete(circuit);
+    }
 
-        byte[] secret = crypto.performECDH(eph.getPrivate(), hopPub);
-        byte[] sessionKey = crypto.deriveAESKey(secret);
+    // The pool check builds a replacement, through other hops with any luck. The hops that answered already drop
+    // their part.
+    private void abandonBuild(ClientCircuit circuit) {
+        logger.warn("Hop {} of circuit {} refused the handshake, being overloaded or on another relay crypto mode. Circuit not built",
+                circuit.layers.size(), circuit.circuitId);
+        destroyClientCircuit(circuit);
+    }
 
-        keys.put(currentHop, sessionKey);
-        logger.info("Established session key with hop {}", currentHop);
-        currentHop++;
+    private void completeBuild(ClientCircuit circuit) {
+        circuit.builtAt = System.nanoTime();
+        logEstablished(circuit);
 
-        if (currentHop < circuitLength) {
-            extendToNextHop(currentHop);
-        } else {
-            circuitType = CircuitType.INITIAL;
-            logger.info("Circuit {} fully established with {} hops!", myCircuitId, circuitLength);
+        // Under the lock no new request can overtake the waiting ones
+        synchronized (waitingRequests) {
+            circuit.state = CircuitType.INITIAL;
+            if (!waitingRequests.isEmpty())
+                logger.info("Sending {} waiting request(s) on circuit {}", waitingRequests.size(), circuit.circuitId);
+            while (!waitingRequests.isEmpty()) packageRequest(circuit, waitingRequests.poll());
         }
     }
 
+    // Queue depth, wait and handshake time of the CREATEs we answered since the last report, warns once any were dropped
+    void logHandshakeStats() {
+        LatencyStats.Snapshot wait = onionskins.snapshotWaitTimes();
+        LatencyStats.Snapshot handshake = onionskins.snapshotHandshakeTimes();
+        long dropped = onionskins.getDroppedCount();
+
+        String stats = String.format("%d waiting of %d on %d workers, %d handshakes, wait avg %.2fms max %.2fms, handshake avg %.2fms max %.2fms",
+                onionskins.getWaitingCount(), onionskins.getCapacity(), onionskins.getWorkerCount(), handshake.count(),
+                wait.averageMillis(), wait.maxMillis(), handshake.averageMillis(), handshake.maxMillis());
+        if (dropped > reportedHandshakeDrops) logger.warn("Onionskin queue {}, {} dropped", stats, dropped);
+        else logger.debug("Onionskin queue {}, {} dropped", stats, dropped);
+        reportedHandshakeDrops = dropped;
+    }
+
+    // Build time includes connecting to the entry node. Cold takes had to generate their key pair on the spot.
+    private void logEstablished(ClientCircuit circuit) {
+        logger.info("Circuit {} fully established with {} hops in {} ms! Key pool: {} warm, {} cold takes so far",
+                circuit.circuitId, circuitLength, (circuit.builtAt - circuit.buildStartedAt) / 1_000_000,
+                keyPool.getWarmTakeCount(), keyPool.getColdTakeCount());
+    }
+
     public boolean isCircuitReady() {
-        return circuitType == CircuitType.INITIAL && currentHop == circuitLength;
+        long now = System.nanoTime();
+        return clientCircuits.values().stream().anyMatch(circuit -> circuit.isUsable(now, maxAgeNanos));
+    }
+
+    // Spreads requests over the usable circuits in turn
+    private ClientCircuit usableCircuit() {
+        long now = System.nanoTime();
+        List<ClientCircuit> usable = new ArrayList<>();
+        for (ClientCircuit circuit : clientCircuits.values())
+            if (circuit.isUsable(now, maxAgeNanos)) usable.add(circuit);
+        return usable.isEmpty() ? null : usable.get(Math.floorMod(nextCircuit.getAndIncrement(), usable.size()));
+    }
+
+    // Without a usable circuit the request waits for the next one to complete and a build is started if none is under
+    // way. Returns false if the request was refused: too many requests are waiting already, or it would not fit into
+    // the data a circuit may hold back for lack of credit.
+    public boolean sendRequest(String input) {
+        if (cellCount(input) > maxPendingCells) {
+            logger.warn("Request of {} data cells exceeds the {} a circuit may hold back, request dropped", cellCount(input), maxPendingCells);
+            return false;
+        }
+
+        ClientCircuit circuit;
+        synchronized (waitingRequests) {
+            circuit = usableCircuit();
+            if (circuit == null) {
+                if (waitingRequests.size() >= maxWaitingRequests) {
+                    logger.warn("{} requests are waiting for a circuit already, request dropped", waitingRequests.size());
+                    return false;
+                }
+                waitingRequests.add(input);
+            }
+        }
+
+        if (circuit == null) {
+            logger.info("No circuit ready, the request waits for the next one");
+            initIfIdle();
+            return true;
+        }
+        return packageRequest(circuit, input);
+    }
+
+    private int cellCount(String input) {
+        int chunkSize = OnionLayer.maxPayload(relayCryptoMode, circuitLength);
+        return (input.getBytes(StandardCharsets.UTF_8).length + chunkSize - 1) / chunkSize;
+    }
+
+    // Splits the request into data cells. Whatever the windows do not cover yet waits here until a SENDME arrives,
+    // a request that would not fit behind the cells already waiting is refused as a whole.
+    private boolean packageRequest(ClientCircuit circuit, String input) {
+        byte[] data = input.getBytes(StandardCharsets.UTF_8);
+        int chunkSize = OnionLayer.maxPayload(relayCryptoMode, circuitLength);
+
+        synchronized (circuit) {
+            if (circuit.pendingData.size() + cellCount(input) > maxPendingCells) {
+                logger.warn("Circuit {} holds back {} data cells already, request dropped", circuit.circuitId, circuit.pendingData.size());
+                return false;
+            }
+            for (int offset = 0; offset < data.length; offset += chunkSize)
+                circuit.pendingData.add(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + chunkSize)));
+            sendPendingData(circuit);
+        }
+        return true;
+    }
+
+    private void sendPendingData(ClientCircuit circuit) {
+        List<OnionLayer> hops = circuit.layers;
+        while (!circuit.pendingData.isEmpty() && circuit.circuitWindow.canPackage() && circuit.entryWindow.canPackage()) {
+            Cell cell = hops.get(hops.size() - 1).seal(circuit.circuitId, ByteBuffer.wrap(circuit.pendingData.poll()), Direction.FORWARD);
+            for (int i = hops.size() - 2; i >= 0; i--) cell = hops.get(i).add(cell, Direction.FORWARD);
+
+            circuit.circuitWindow.onPackaged();
+            circuit.entryWindow.onPackaged();
+            circuit.entryPeer.send(MessageBuilder.buildCircuitDataMessage(cell));
+        }
+
+        if (!circuit.pendingData.isEmpty())
+            logger.debug("Circuit {} is out of credit, {} data cell(s) waiting", circuit.circuitId, circuit.pendingData.size());
+    }
+
+    public void onCircuitData(Peer peer, Message message) {
+        Cell cell = (Cell) message.getPayload();
+        UUID circuitId = message.getCircuitId();
+        RelayCircuit relay = activeRelay(circuitId);
+
+        if (relay == null || peer != relay.previousHop) {
+            logger.warn("Received data for unknown circuit: {}", circuitId);
+            cell.release();
+            return;
+        }
+
+        synchronized (relay) {
+            if (!relay.inbound.onReceived()) {
+                logger.warn("Previous hop ignored the flow control window of circuit {}, dropping cell", circuitId);
+                cell.release();
+                return;
+            }
+
+            if (relay.nextHop == null) {
+                deliverData(circuitId, relay, relay.layer.open(cell, Direction.FORWARD));
+                return;
+            }
+
+            message.setPayload(relay.layer.remove(cell, Direction.FORWARD));
+            relay.pendingData.add(message);
+            forwardPendingData(circuitId, relay);
+        }
+    }
+
+    private void forwardPendingData(UUID circuitId, RelayCircuit relay) {
+        while (!relay.pendingData.isEmpty() && relay.outbound.canPackage()) {
+            relay.outbound.onPackaged();
+            // A cell may wait here for credit longer than the next hop's replay window, it counts as sent from here
+            Message message = relay.pendingData.poll();
+            message.setTimestamp(System.currentTimeMillis());
+            relay.nextHop.send(message);
+
+            // Only cells that actually left count towards the credit handed back, so a stalled next hop stalls us too
+            if (relay.inbound.onDelivered()) sendSendme(circuitId, relay, SENDME_HOP);
+        }
+
+        if (relay.closing && relay.pendingData.isEmpty()) destroyRelay(circuitId, relay, relay.nextHop);
+    }
+
+    // We are the exit. Nothing consumes circuit data yet, so delivering means logging it.
+    private void deliverData(UUID circuitId, RelayCircuit relay, Cell cell) {
+        logger.info("Exit received {} byte(s) on circuit {}", cell.getBodyLength(), circuitId);
+        cell.release();
+
+        if (relay.inbound.onDelivered()) sendSendme(circuitId, relay, SENDME_HOP);
+        if (relay.circuit.onDelivered()) sendSendme(circuitId, relay, SENDME_CIRCUIT);
+    }
+
+    // A circuit SENDME is sealed by the exit so the client knows the credit really comes from the end of its circuit
+    private void sendSendme(UUID circuitId, RelayCircuit relay, byte scope) {
+        Cell cell;
+        if (scope == SENDME_CIRCUIT) {
+            cell = relay.layer.seal(circuitId, ByteBuffer.wrap(new byte[]{SENDME_CIRCUIT}), Direction.BACKWARD);
+        } else {
+            cell = cellPool.acquire(circuitId);
+            cell.setBody(new byte[]{SENDME_HOP});
+        }
+        relay.previousHop.send(MessageBuilder.buildCircuitSendmeMessage(cell));
+    }
+
+    private static boolean isHopSendme(Cell cell) {
+        return cell.getBodyLength() == 1 && cell.body().get() == SENDME_HOP;
+    }
+
+    public void onCircuitSendme(Peer peer, Message message) {
+        Cell cell = (Cell) message.getPayload();
+        UUID circuitId = message.getCircuitId();
+
+        ClientCircuit circuit = clientCircuits.get(circuitId);
+        if (circuit != null && circuit.isBuilt()) {
+            onClientSendme(circuit, cell);
+            return;
+        }
+
+        RelayCircuit relay = activeRelay(circuitId);
+        if (relay == null || peer != relay.nextHop) {
+            logger.warn("Received SENDME for unknown circuit: {}", circuitId);
+            cell.release();
+            return;
+        }
+
+        if (isHopSendme(cell)) {
+            cell.release();
+            synchronized (relay) {
+                if (!relay.outbound.onSendme()) logger.warn("Unexpected SENDME from next hop of circuit {}", circuitId);
+                forwardPendingData(circuitId, relay);
+            }
+            return;
+        }
+
+        // Circuit credit passes through, wrapped in our layer like any other backward cell
+        message.setPayload(relay.layer.add(cell, Direction.BACKWARD));
+        relay.previousHop.send(message);
+    }
+
+    private void onClientSendme(ClientCircuit circuit, Cell cell) {
+        synchronized (circuit) {
+            if (isHopSendme(cell)) {
+                cell.release();
+                if (!circuit.entryWindow.onSendme()) logger.warn("Unexpected SENDME from entry node of circuit {}", circuit.circuitId);
+            } else {
+                List<OnionLayer> hops = circuit.layers;
+                for (int i = 0; i < hops.size() - 1; i++) cell = hops.get(i).remove(cell, Direction.BACKWARD);
+                cell = hops.get(hops.size() - 1).open(cell, Direction.BACKWARD);
+                byte[] data = cell.getBody();
+                cell.release();
+                if (data.length != 1 || data[0] != SENDME_CIRCUIT || !circuit.circuitWindow.onSendme()) {
+                    logger.warn("Invalid circuit SENDME on circuit {}", circuit.circuitId);
+                    return;
+                }
+            }
+
+            logger.debug("Circuit {} credit: {} end to end, {} to entry node", circuit.circuitId,
+                    circuit.circuitWindow.getPackageWindow(), circuit.entryWindow.getPackageWindow());
+            sendPendingData(circuit);
+        }
     }
 
-    public void sendRequest(String input) {
-//        construct get request, encrypt it using session keys, send it to entry peer
-        return;
+    // Every cell a relay circuit handles keeps it from being reaped as idle
+    private RelayCircuit activeRelay(UUID circuitId) {
+        RelayCircuit relay = relayCircuits.get(circuitId);
+        if (relay != null) relay.lastActiveAt = System.nanoTime();
+        return relay;
+    }
+
+    // The DESTROY carries no body and travels hop by hop, away from the side it came from. Towards the exit it waits
+    // for the data cells still queued for credit, towards the client there is nobody left to take them.
+    public void onCircuitDestroy(Peer peer, Message message) {
+        UUID circuitId = message.getCircuitId();
+        ((Cell) message.getPayload()).release();
+
+        ClientCircuit circuit = clientCircuits.get(circuitId);
+        if (circuit != null) {
+            if (peer == circuit.entryPeer && clientCircuits.remove(circuitId, circuit))
+                logger.warn("Circuit {} was torn down by one of its hops", circuitId);
+            return;
+        }
+
+        RelayCircuit relay = relayCircuits.get(circuitId);
+        if (relay == null) {
+            logger.debug("DESTROY for unknown circuit {}", circuitId);
+            return;
+        }
+
+        if (peer == relay.previousHop) {
+            synchronized (relay) {
+                if (!relay.pendingData.isEmpty()) {
+                    relay.closing = true;
+                    return;
+                }
+            }
+            destroyRelay(circuitId, relay, relay.nextHop);
+        } else if (peer == relay.nextHop) {
+            destroyRelay(circuitId, relay, relay.previousHop);
+        }
+    }
+
+    // Drops our state of a relayed circuit and passes the DESTROY on to towards, if there is anyone. Returns false if
+    // the circuit was dropped already.
+    private boolean destroyRelay(UUID circuitId, RelayCircuit relay, Peer towards) {
+        if (!relayCircuits.remove(circuitId, relay)) return false;
+
+        synchronized (relay) {
+            while (!relay.pendingData.isEmpty()) ((Cell) relay.pendingData.poll().getPayload()).release();
+        }
+        if (towards != null) sendDestroy(towards, circuitId);
+        logger.debug("Dropped relay circuit {}", circuitId);
+        return true;
+    }
+
+    private void sendDestroy(Peer peer, UUID circuitId) {
+        if (peer.isClosed()) return;
+        peer.send(MessageBuilder.buildCircuitDestroyMessage(cellPool.acquire(circuitId)));
+    }
+
+    // Catches the circuits no DESTROY arrived for: a neighbour on the circuit went away, or nothing moved on it for
+    // relayIdleTimeout, e.g. because its client vanished. Whoever is still there is told.
+    private void reapRelayCircuits() {
+        long now = System.nanoTime();
+        int reaped = 0;
+        try {
+            for (Map.Entry<UUID, RelayCircuit> entry : relayCircuits.entrySet()) {
+                UUID circuitId = entry.getKey();
+                RelayCircuit relay = entry.getValue();
+                Peer nextHop = relay.nextHop;
+
+                boolean dropped;
+                if (relay.previousHop.isClosed()) {
+                    dropped = destroyRelay(circuitId, relay, nextHop);
+                } else if (nextHop != null && nextHop.isClosed()) {
+                    dropped = destroyRelay(circuitId, relay, relay.previousHop);
+                } else if (now - relay.lastActiveAt > relayIdleTimeoutNanos) {
+                    dropped = destroyRelay(circuitId, relay, relay.previousHop);
+                    if (dropped && nextHop != null) sendDestroy(nextHop, circuitId);
+                } else {
+                    dropped = false;
+                }
+                if (dropped) reaped++;
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task it would cancel every later run
+            logger.error("Failed to reap relay circuits: {}", e.getMessage());
+        }
+        if (reaped > 0) logger.info("Dropped {} relay circuit(s) with a neighbour gone or idle, {} left", reaped, relayCircuits.size());
     }
 
-    @AllArgsConstructor
     private static class RelayCircuit {
-        Peer previousHop;
-        Peer nextHop;
-        byte[] sessionKey;
+        final Peer previousHop;
+        volatile Peer nextHop;
+        // We remove our layer from what travels forward and add it to what travels back
+        final OnionLayer layer;
+
+        // Guarded by the RelayCircuit itself. inbound covers the link from the previous hop, outbound the one to the
+        // next hop, circuit the end to end credit the exit hands back to the client.
+        final FlowWindow inbound;
+        final FlowWindow outbound;
+        final FlowWindow circuit;
+        final Queue<Message> pendingData = new ArrayDeque<>();
+        // The previous hop sent a DESTROY, which goes on once pendingData is out
+        boolean closing;
+        volatile long lastActiveAt = System.nanoTime();
+
+        RelayCircuit(Peer previousHop, OnionLayer layer, int windowSize, int windowIncrement) {
+            this.previousHop = previousHop;
+            this.layer = layer;
+            this.inbound = new FlowWindow(windowSize, windowIncrement);
+            this.outbound = new FlowWindow(windowSize, windowIncrement);
+            this.circuit = new FlowWindow(windowSize, windowIncrement);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package dev.network;
+
+import dev.models.PeerInfo;
+import dev.models.enums.CircuitType;
+
+import java.security.KeyPair;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+
+// One of our own circuits, from the first CREATE until it is retired. While the circuit is PENDING only the thread
+// handling its next handshake response touches it, there is one outstanding at a time. Once INITIAL the layers never
+// change again. The flow windows and the data waiting for credit are guarded by the ClientCircuit itself.
+class ClientCircuit {
+    final UUID circuitId = UUID.randomUUID();
+    final List<PeerInfo> path;
+    final long buildStartedAt = System.nanoTime();
+    // Index is the hop, 0 being the entry node. The next hop to answer is layers.size().
+    final List<OnionLayer> layers = new ArrayList<>();
+    volatile CircuitType state = CircuitType.PENDING;
+    volatile Peer entryPeer;
+    // Our half of the handshake the next hop has yet to answer
+    volatile KeyPair pendingKey;
+    volatile long builtAt;
+    // Set once the circuit expired or lost its entry node. No new requests go out on it, data already queued still does.
+    volatile boolean retired;
+
+    // End to end credit from the exit and link credit from the entry node
+    final FlowWindow circuitWindow;
+    final FlowWindow entryWindow;
+    final Queue<byte[]> pendingData = new ArrayDeque<>();
+
+    ClientCircuit(List<PeerInfo> path, int windowSize, int windowIncrement) {
+        this.path = path;
+        this.circuitWindow = new FlowWindow(windowSize, windowIncrement);
+        this.entryWindow = new FlowWindow(windowSize, windowIncrement);
+    }
+
+    boolean isBuilt() {
+        return state == CircuitType.INITIAL;
+    }
+
+    boolean isUsable(long now, long maxAgeNanos) {
+        return isBuilt() && !retired && !entryPeer.isClosed() && now - builtAt < maxAgeNanos;
+    }
+}
@@ -0,0 +1,23 @@
+package dev.network;
+
+import dev.models.Event;
+
+import java.util.function.Predicate;
+
+// Storage behind a MessageQueue lane, which owns the waiting. Any thread may add and removeFirst, everything else
+// is only called by the lane's single consumer.
+interface EventBuffer {
+    void add(Event event);
+
+    Event poll();
+
+    // Moves up to max events into batch starting at offset, without waiting. Returns the count.
+    int drainTo(Event[] batch, int offset, int max);
+
+    int size();
+
+    // Takes the oldest event matching filter out of the buffer, null if there is none
+    Event removeFirst(Predicate<Event> filter);
+
+    void clear();
+}
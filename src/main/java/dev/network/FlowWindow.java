@@ -0,0 +1,55 @@
+package dev.network;
+
+// Credit based flow control in the style of Tor's SENDME windows. The sending side may package at most
+// windowSize data cells before it hears back; the receiving side hands out another increment of credit each time
+// it has actually processed that many cells. A stalled receiver therefore stops the sender, and the cells buffered
+// in between never exceed the window. Not thread safe, callers guard it with the circuit's lock.
+class FlowWindow {
+    private final int windowSize;
+    private final int increment;
+
+    private int packageWindow;
+    private int deliverWindow;
+    private int delivered = 0;
+
+    FlowWindow(int windowSize, int increment) {
+        this.windowSize = windowSize;
+        this.increment = increment;
+        this.packageWindow = windowSize;
+        this.deliverWindow = windowSize;
+    }
+
+    boolean canPackage() {
+        return packageWindow > 0;
+    }
+
+    void onPackaged() {
+        packageWindow--;
+    }
+
+    // Returns false for a SENDME that would push the window past its size
+    boolean onSendme() {
+        if (packageWindow + increment > windowSize) return false;
+        packageWindow += increment;
+        return true;
+    }
+
+    // Returns false when the sender ignored our window
+    boolean onReceived() {
+        if (deliverWindow == 0) return false;
+        deliverWindow--;
+        return true;
+    }
+
+    // Returns true when a SENDME has to go back to the sender
+    boolean onDelivered() {
+        if (++delivered < increment) return false;
+        delivered -= increment;
+        deliverWindow += increment;
+        return true;
+    }
+
+    int getPackageWindow() {
+        return packageWindow;
+    }
+}
@@ -0,0 +1,111 @@
+package dev.network;
+
+import dev.message.FrameCodec;
+import dev.models.enums.WireFormat;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads straight from the socket into one reusable buffer and cuts it into frames. The wire format can be
+// switched between frames, which is how a connection moves from the text handshake to binary framing.
+public class FrameDecoder {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final int maxFrameSize;
+    @Setter
+    private WireFormat wireFormat = WireFormat.TEXT;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+    private int scanned = 0;
+
+    public FrameDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int read(InputStream in) throws IOException {
+        ensureWritable();
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read > 0) end += read;
+        return read;
+    }
+
+    public int read(ReadableByteChannel channel) throws IOException {
+        ensureWritable();
+        int read = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+        if (read > 0) end += read;
+        return read;
+    }
+
+    // Hands every complete frame in the buffer to the peer. Binary frames are passed as a slice of the
+    // internal buffer and are only valid for the duration of the call.
+    public void decode(Peer peer) throws IOException {
+        boolean decoded = true;
+        while (decoded && start < end)
+            decoded = wireFormat == WireFormat.BINARY ? decodeBinary(peer) : decodeText(peer);
+
+        if (start == end) {
+            start = 0;
+            end = 0;
+            scanned = 0;
+        }
+    }
+
+    private boolean decodeText(Peer peer) throws IOException {
+        for (int i = Math.max(scanned, start); i < end; i++) {
+            if (buffer[i] != '\n') continue;
+
+            int length = i > start && buffer[i - 1] == '\r' ? i - 1 - start : i - start;
+            String rawMessage = new String(buffer, start, length, StandardCharsets.UTF_8);
+            start = i + 1;
+            scanned = start;
+            peer.onFrame(rawMessage);
+            return true;
+        }
+
+        scanned = end;
+        if (end - start > maxFrameSize)
+            throw new IOException("Text frame exceeds maximum size of " + maxFrameSize + " bytes");
+        return false;
+    }
+
+    private boolean decodeBinary(Peer peer) throws IOException {
+        if (end - start < FrameCodec.LENGTH_FIELD_SIZE) return false;
+
+        int length = ((buffer[start] & 0xFF) << 24) | ((buffer[start + 1] & 0xFF) << 16)
+                | ((buffer[start + 2] & 0xFF) << 8) | (buffer[start + 3] & 0xFF);
+        if (length <= 0 || length > maxFrameSize)
+            throw new IOException("Invalid frame length " + length + ", maximum is " + maxFrameSize + " bytes");
+
+        if (end - start < FrameCodec.LENGTH_FIELD_SIZE + length) return false;
+
+        int offset = start + FrameCodec.LENGTH_FIELD_SIZE;
+        start = offset + length;
+        scanned = start;
+        peer.onFrame(buffer, offset, length);
+        return true;
+    }
+
+    private void ensureWritable() throws IOException {
+        if (end < buffer.length) return;
+
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+            return;
+        }
+
+        int limit = maxFrameSize + FrameCodec.LENGTH_FIELD_SIZE;
+        if (buffer.length >= limit)
+            throw new IOException("Frame exceeds maximum size of " + maxFrameSize + " bytes");
+        buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, limit));
+    }
+}
@@ -0,0 +1,32 @@
+package dev.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Count, total and maximum of a latency since the last snapshot. Recording never blocks, a snapshot taken while
+// events are recorded may miss one or two of them.
+class LatencyStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    record Snapshot(long count, long totalNanos, long maxNanos) {
+        double averageMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        double maxMillis() {
+            return maxNanos / 1e6;
+        }
+    }
+
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    Snapshot snapshotAndReset() {
+        return new Snapshot(count.sumThenReset(), totalNanos.sumThenReset(), maxNanos.getAndSet(0));
+    }
+}
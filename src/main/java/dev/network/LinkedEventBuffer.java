@@ -0,0 +1,48 @@
+package dev.network;
+
+import dev.models.Event;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
+
+class LinkedEventBuffer implements EventBuffer {
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+
+    @Override
+    public void add(Event event) {
+        events.add(event);
+    }
+
+    @Override
+    public Event poll() {
+        return events.poll();
+    }
+
+    @Override
+    public int drainTo(Event[] batch, int offset, int max) {
+        int count = 0;
+        Event event;
+        while (count < max && (event = events.poll()) != null) batch[offset + count++] = event;
+        return count;
+    }
+
+    @Override
+    public int size() {
+        return events.size();
+    }
+
+    @Override
+    public Event removeFirst(Predicate<Event> filter) {
+        for (Event event : events) {
+            // The consumer may have taken it in the meantime, the event is only ours if the removal succeeds
+            if (filter.test(event) && events.remove(event)) return event;
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        events.clear();
+    }
+}
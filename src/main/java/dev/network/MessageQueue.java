@@ -1,12 +1,263 @@
 package dev.network;
 
+import dev.message.payload.Cell;
 import dev.models.Event;
+import dev.models.Message;
+import dev.models.enums.MessageQueueType;
+import dev.models.enums.MessageType;
+import dev.models.enums.OverloadPolicy;
+import dev.models.enums.TrafficClass;
+import dev.models.enums.WaitStrategy;
+import dev.utils.Config;
 import lombok.Getter;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
-@Getter
+// Inbound events, split into lanes that are each drained by one MessageHandler thread. Lane 0 carries control
+// traffic such as peer discovery. Circuit cells are spread over the other lanes by circuit id, so all cells of one
+// circuit are handled by the same thread. Within a circuit lane, setup and SENDME cells are served before data
+// cells, each class in arrival order, so a circuit build never waits behind bulk data. Every lane holds at most
+// capacity events, what happens to the ones beyond that is up to the OverloadPolicy.
 public class MessageQueue {
-    private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+    public static final int CONTROL_LANE = 0;
+
+    private final Lane[] lanes;
+    @Getter
+    private final int circuitLaneCount;
+    @Getter
+    private final int capacity;
+    @Getter
+    private final OverloadPolicy overloadPolicy;
+    // Time from enqueue to dispatch, per traffic class
+    private final Map<TrafficClass, LatencyStats> latencies = new EnumMap<>(TrafficClass.class);
+
+    public MessageQueue(Config config) {
+        this(config.getMessageHandlerLanes(), config.getMessageQueueCapacity(), config.getMessageQueueOverloadPolicy(),
+                config.getMessageQueueType(), config.getMessageQueueWaitStrategy(), config.getMessageQueueDataShare());
+    }
+
+    public MessageQueue(int circuitLaneCount, int capacity, OverloadPolicy overloadPolicy, MessageQueueType queueType,
+                        WaitStrategy waitStrategy, int dataShare) {
+        this.circuitLaneCount = Math.max(1, circuitLaneCount);
+        this.capacity = Math.max(1, capacity);
+        this.overloadPolicy = overloadPolicy;
+        for (TrafficClass trafficClass : TrafficClass.values()) latencies.put(trafficClass, new LatencyStats());
+
+        this.lanes = new Lane[this.circuitLaneCount + 1];
+        for (int i = 0; i < lanes.length; i++) {
+            // Twice the capacity, so paused peers can still hand over the frames they already read
+            EventBuffer priority = newBuffer(queueType, 2 * this.capacity);
+            EventBuffer data = newBuffer(queueType, 2 * this.capacity);
+            lanes[i] = new Lane(priority, data, this.capacity, waitStrategy, dataShare, latencies);
+        }
+    }
+
+    private static EventBuffer newBuffer(MessageQueueType queueType, int size) {
+        return queueType == MessageQueueType.RING ? new RingEventBuffer(size) : new LinkedEventBuffer();
+    }
+
+    // Returns false when the event was dropped
+    public boolean add(Event event) {
+        Lane lane = lanes[laneOf(event.message())];
+        if (lane.size() < capacity) {
+            lane.add(event);
+            return true;
+        }
+
+        switch (overloadPolicy) {
+            case PAUSE_READING -> {
+                lane.add(event);
+                lane.pause(event.sender());
+                return true;
+            }
+            case DROP_OLDEST -> {
+                // The circuit windows already bound these, and a lost one would take its credit with it for good. A lost
+                // DESTROY would leave the circuit on every later hop until it idles out.
+                if (carriesCredit(event) || event.message().getMessageType() == MessageType.CIRCUIT_DESTROY) {
+                    lane.add(event);
+                    lane.pause(event.sender());
+                    return true;
+                }
+                if (!lane.dropOldestUncredited()) {
+                    lane.drop(event);
+                    return false;
+                }
+                lane.add(event);
+                return true;
+            }
+            default -> {
+                lane.drop(event);
+                lane.disconnected.increment();
+                event.sender().disconnect();
+                return false;
+            }
+        }
+    }
+
+    // Data cells use up flow control credit and SENDMEs return it
+    private static boolean carriesCredit(Event event) {
+        MessageType messageType = event.message().getMessageType();
+        return messageType == MessageType.DATA_TRANSFER || messageType == MessageType.CIRCUIT_SENDME;
+    }
+
+    public int laneOf(Message message) {
+        UUID circuitId = message.getCircuitId();
+        if (circuitId == null) return CONTROL_LANE;
+
+        int hash = circuitId.hashCode();
+        return 1 + Math.floorMod(hash ^ hash >>> 16, circuitLaneCount);
+    }
+
+    public Lane getLane(int lane) {
+        return lanes[lane];
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    LatencyStats.Snapshot snapshotLatency(TrafficClass trafficClass) {
+        return latencies.get(trafficClass).snapshotAndReset();
+    }
+
+    public static class Lane {
+        // Control and circuit setup messages, and data cells
+        private final EventBuffer priority;
+        private final EventBuffer data;
+        private final int resumeBelow;
+        private final WaitStrategy waitStrategy;
+        private final int dataShare;
+        private final Map<TrafficClass, LatencyStats> latencies;
+        private final Set<Peer> pausedPeers = ConcurrentHashMap.newKeySet();
+
+        private volatile Thread consumer;
+        private volatile boolean isConsumerParked = false;
+
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder paused = new LongAdder();
+        private final LongAdder disconnected = new LongAdder();
+
+        private Lane(EventBuffer priority, EventBuffer data, int capacity, WaitStrategy waitStrategy, int dataShare,
+                     Map<TrafficClass, LatencyStats> latencies) {
+            this.priority = priority;
+            this.data = data;
+            this.resumeBelow = capacity / 2;
+            this.waitStrategy = waitStrategy;
+            this.dataShare = dataShare;
+            this.latencies = latencies;
+        }
+
+        private void add(Event event) {
+            if (event.message().getMessageType().getTrafficClass() == TrafficClass.DATA) data.add(event);
+            else priority.add(event);
+
+            // Both are volatile accesses, so either the consumer sees the event before parking or we see it parked
+            if (isConsumerParked) LockSupport.unpark(consumer);
+        }
+
+        // Waits for at least one event and takes as many as fit into batch, returns how many it took. Priority
+        // events go first, but while data is waiting at least dataShare slots of every batch are left to it.
+        public int drain(Event[] batch) throws InterruptedException {
+            while (true) {
+                int reserved = data.size() > 0 ? Math.min(dataShare, batch.length) : 0;
+                int count = priority.drainTo(batch, 0, batch.length - reserved);
+                count += data.drainTo(batch, count, batch.length - count);
+                if (count < batch.length) count += priority.drainTo(batch, count, batch.length - count);
+
+                if (count > 0) {
+                    if (!pausedPeers.isEmpty() && size() <= resumeBelow) resumePaused();
+                    recordLatency(batch, count);
+                    return count;
+                }
+                await();
+            }
+        }
+
+        public Event poll() {
+            Event event = priority.poll();
+            if (event == null) event = data.poll();
+            if (!pausedPeers.isEmpty() && size() <= resumeBelow) resumePaused();
+            return event;
+        }
+
+        public int size() {
+            return priority.size() + data.size();
+        }
+
+        public void clear() {
+            priority.clear();
+            data.clear();
+            resumePaused();
+        }
+
+        private void await() throws InterruptedException {
+            if (Thread.interrupted()) throw new InterruptedException();
+
+            switch (waitStrategy) {
+                case SPIN -> Thread.onSpinWait();
+                case YIELD -> Thread.yield();
+                case PARK -> {
+                    consumer = Thread.currentThread();
+                    isConsumerParked = true;
+                    if (size() == 0) LockSupport.park(this);
+                    isConsumerParked = false;
+                }
+            }
+        }
+
+        private void recordLatency(Event[] batch, int count) {
+            long now = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                latencies.get(batch[i].message().getMessageType().getTrafficClass()).record(now - batch[i].enqueuedAt());
+        }
+
+        // The connection is paused before the peer is recorded, then the depth is checked again. A lane that
+        // drained in between would otherwise never get to resume it.
+        private void pause(Peer peer) {
+            if (pausedPeers.contains(peer)) return;
+
+            peer.pauseReading();
+            pausedPeers.add(peer);
+            paused.increment();
+            if (size() <= resumeBelow) resumePaused();
+        }
+
+        private void resumePaused() {
+            for (Peer peer : pausedPeers)
+                if (pausedPeers.remove(peer)) peer.resumeReading();
+        }
+
+        // A lost control or setup message costs a retry, a lost data cell or SENDME the credit it carries
+        private boolean dropOldestUncredited() {
+            Event event = priority.removeFirst(e -> !carriesCredit(e));
+            if (event == null) return false;
+
+            drop(event);
+            return true;
+        }
+
+        private void drop(Event event) {
+            dropped.increment();
+            if (event.message().getMessageType().isCircuitCell() && event.message().getPayload() instanceof Cell cell)
+                cell.release();
+        }
+
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        public long getPausedCount() {
+            return paused.sum();
+        }
+
+        public long getDisconnectedCount() {
+            return disconnected.sum();
+        }
+    }
 }
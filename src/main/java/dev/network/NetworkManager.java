@@ -1,21 +1,26 @@
 package dev.network;
 
 import dev.message.MessageBuilder;
+import dev.message.payload.CellPool;
 import dev.models.PeerInfo;
 import dev.models.enums.MessageType;
-import dev.models.enums.PeerDirection;
+import dev.models.enums.TrafficClass;
 import dev.protocol.CircuitProtocol;
 import dev.protocol.MessageHandler;
+import dev.protocol.PeerDigest;
 import dev.protocol.PeerDiscoveryProtocol;
 import dev.utils.Config;
 import dev.utils.Crypto;
 import dev.utils.CustomException;
+import dev.utils.EphemeralKeyPool;
+import dev.utils.KeyAgreementSuite;
+import dev.utils.ExecutorFactory;
 import dev.utils.Logger;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -23,19 +28,32 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @Getter
 @Setter
 public class NetworkManager {
+    private static final long CONNECT_TIMEOUT_SECONDS = 3;
+
     private final Logger logger;
     private final UUID nodeId;
 
     private AtomicBoolean isRunning = new AtomicBoolean(false);
-    private final ExecutorService peerExecutor;
     private final Config config;
+    private final ExecutorFactory executorFactory;
+    private Transport transport;
 
     private final Crypto crypto;
+    private final CellPool cellPool;
+    // One per suite, a relay takes from the pool of whatever suite the client offered
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<KeyAgreementSuite, EphemeralKeyPool> keyPools;
     private final MessageQueue queue;
     private final String encodedPublicKey;
 
     private final ConcurrentHashMap<String, Peer> connectedPeers;
+    private final ConcurrentHashMap<String, CompletableFuture<Peer>> pendingConnections;
     private final List<PeerInfo> knownPeers;
+    // Public keys of the known peers, so each one is added once however many threads find it at the same time
+    private final Set<String> knownPeerKeys;
+    // Sum of PeerDigest hashes over the known peers and this node, kept up to date by add and remove
+    private long knownPeerSetHash;
 
     private final MessageHandler messageHandler;
 
@@ -44,54 +62,106 @@ public class NetworkManager {
     private final CircuitProtocol circuitProtocol;
 
     private final ScheduledExecutorService scheduler;
+    private final ExecutorService connectExecutor;
 
+    // Overload counters as of the last queue report, only touched by logQueueStats
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private long reportedDrops, reportedPauses, reportedDisconnects;
 
-    public NetworkManager(Config config, MessageHandler messageHandler, MessageQueue queue, ExecutorService executor) {
+    public NetworkManager(Config config, MessageHandler messageHandler, MessageQueue queue, ExecutorFactory executorFactory) {
         this.logger = Logger.getLogger(NetworkManager.class);
         this.nodeId = UUID.randomUUID();
-        this.peerExecutor = executor;
         this.config = config;
+        this.executorFactory = executorFactory;
         this.crypto = new Crypto();
+        this.cellPool = new CellPool(config.getCellPoolSize(), config.isCellPoolDirect());
+        this.keyPools = new EnumMap<>(KeyAgreementSuite.class);
+        ExecutorService keyPoolExecutor = executorFactory.newTaskExecutor("key-pool");
+        for (KeyAgreementSuite suite : KeyAgreementSuite.values())
+            keyPools.put(suite, new EphemeralKeyPool(suite::generateKeyPair, config.getKeyPoolSize(), config.getKeyPoolWatermark(), keyPoolExecutor));
         this.encodedPublicKey = Base64.getEncoder().encodeToString(crypto.getPublicKey().getEncoded());
         this.queue = queue;
 
         this.connectedPeers = new ConcurrentHashMap<>();
+        this.pendingConnections = new ConcurrentHashMap<>();
         this.knownPeers = new ArrayList<>();
+        this.knownPeerKeys = new HashSet<>();
+        this.knownPeerSetHash = PeerDigest.hash(encodedPublicKey);
 
         this.messageHandler = messageHandler;
         this.peerDiscoveryProtocol = new PeerDiscoveryProtocol(this);
         this.circuitManager = new CircuitManager(this);
         this.circuitProtocol = new CircuitProtocol(circuitManager);
-        this.scheduler = Executors.newScheduledThreadPool(2);
+        this.scheduler = executorFactory.newScheduler("network-maintenance", 2);
+        this.connectExecutor = executorFactory.newTaskExecutor("connect");
         registerProtocols();
     }
 
     public void start() {
         logger.info("Starting network manager");
         isRunning.set(true);
+        // The other pools fill up once a client first offers their suite
+        getKeyPool(config.getKeyAgreementSuite()).refill();
         peerDiscoveryProtocol.init();
         scheduler.scheduleWithFixedDelay(
                 this::startPeerMaintenance,
                 config.getPeerDiscoveryInitialDelayInSeconds(),
                 config.getPeerDiscoveryDelayInSeconds(),
                 TimeUnit.SECONDS);
-//        circuitManager.init();
+        scheduler.scheduleAtFixedRate(
+                this::logQueueStats,
+                config.getMessageQueueStatsDelayInSeconds(),
+                config.getMessageQueueStatsDelayInSeconds(),
+                TimeUnit.SECONDS);
+        circuitManager.start();
+    }
+
+    // Depth of every handler lane, queueing latency per traffic class and what the overload policy did since the last report
+    private void logQueueStats() {
+        StringBuilder depths = new StringBuilder();
+        long dropped = 0, paused = 0, disconnected = 0;
+        for (int i = 0; i < queue.getLaneCount(); i++) {
+            MessageQueue.Lane lane = queue.getLane(i);
+            depths.append(i == 0 ? "" : " ").append(lane.size());
+            dropped += lane.getDroppedCount();
+            paused += lane.getPausedCount();
+            disconnected += lane.getDisconnectedCount();
+        }
+
+        StringBuilder latencies = new StringBuilder();
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            LatencyStats.Snapshot latency = queue.snapshotLatency(trafficClass);
+            latencies.append(String.format(" %s %d avg %.2fms max %.2fms,", trafficClass.name().toLowerCase(),
+                    latency.count(), latency.averageMillis(), latency.maxMillis()));
+        }
+
+        boolean overloaded = dropped > reportedDrops || paused > reportedPauses || disconnected > reportedDisconnects;
+        String format = "Inbound queue depth [{}] of {},{} {} dropped, {} paused, {} disconnected ({} policy)";
+        if (overloaded) logger.warn(format, depths, queue.getCapacity(), latencies, dropped, paused, disconnected, queue.getOverloadPolicy());
+        else logger.debug(format, depths, queue.getCapacity(), latencies, dropped, paused, disconnected, queue.getOverloadPolicy());
+
+        reportedDrops = dropped;
+        reportedPauses = paused;
+        reportedDisconnects = disconnected;
+        circuitManager.logHandshakeStats();
     }
 
     public void registerPeer(Peer peer) {
-        if (getKnownPeers().stream().noneMatch(p -> p.getPublicKey().equals(peer.getPublicKeyBase64Encoded())))
-            addKnownPeer(new PeerInfo(peer.getPublicKeyBase64Encoded(), peer.getIp(), peer.getPort()));
+        addKnownPeer(new PeerInfo(peer.getPublicKeyBase64Encoded(), peer.getIp(), peer.getPort()));
 
         if (getConnectedPeerCount() >= config.getMaxConnections()) {
             logger.warn("Max peers reached. Cannot register new peer: {}", peer.getPeerId());
             Collections.shuffle(getKnownPeers());
-            peer.send(MessageBuilder.buildPeerResponseMessage(getKnownPeers().stream().limit(5).toList()));
-            peer.disconnect();
+            peer.send(MessageBuilder.buildPeerResponseMessage(getKnownPeers().stream().limit(5).toList()))
+                    .whenComplete((ignored, e) -> peer.disconnect());
+            completePendingConnection(peer.getPublicKeyBase64Encoded(), null);
             return;
         }
 
         addConnectedPeer(peer);
         logger.info("Registered peer: {}", peer.getPeerId());
+        completePendingConnection(peer.getPublicKeyBase64Encoded(), peer);
     }
 
     public void unregisterPeer(Peer peer) {
@@ -119,12 +189,52 @@ public class NetworkManager {
         }
     }
 
+    /**
+     * Connects to the peer unless it is already connected. Concurrent calls for the same public key share one
+     * connection attempt. The future completes once the handshake has registered the peer, and fails if that
+     * does not happen within the connect timeout.
+     */
+    public CompletableFuture<Peer> connect(PeerInfo peerInfo) {
+        String publicKey = peerInfo.getPublicKey();
+        Peer existing = connectedPeers.get(publicKey);
+        if (existing != null) return CompletableFuture.completedFuture(existing);
+
+        CompletableFuture<Peer> connection = new CompletableFuture<>();
+        CompletableFuture<Peer> pending = pendingConnections.putIfAbsent(publicKey, connection);
+        if (pending != null) return pending;
+
+        connection.orTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenComplete((peer, e) -> pendingConnections.remove(publicKey, connection));
+
+        // The handshake may have finished between the first lookup and registering the pending connection
+        existing = connectedPeers.get(publicKey);
+        if (existing != null) {
+            connection.complete(existing);
+            return connection;
+        }
+
+        connectExecutor.execute(() -> {
+            try {
+                transport.connect(peerInfo.getHost(), peerInfo.getPort());
+            } catch (Exception e) {
+                connection.completeExceptionally(new CustomException("Failed connecting to " + peerInfo.getHost() + ":" + peerInfo.getPort(), e));
+            }
+        });
+        return connection;
+    }
+
+    private void completePendingConnection(String publicKey, Peer peer) {
+        CompletableFuture<Peer> pending = pendingConnections.remove(publicKey);
+        if (pending == null) return;
+
+        if (peer != null) pending.complete(peer);
+        else pending.completeExceptionally(new CustomException("Max peers reached, connection rejected", null));
+    }
+
     public void connectToPeer(String ip, int port) {
         try {
             logger.info("--------------------------------------------------------- {}:{}", ip, port);
-            Socket clientSocket = new Socket(ip, port);
-            Peer newPeer = new Peer(clientSocket, queue, this, PeerDirection.OUTBOUND);
-            peerExecutor.submit(newPeer);
+            transport.connect(ip, port);
         } catch (IOException e) {
             throw new CustomException("Failed connecting to new peer", e);
         }
@@ -143,21 +253,41 @@ public class NetworkManager {
     }
 
     public synchronized void removeConnectedPeer(Peer peer) {
-        connectedPeers.remove(peer.getPublicKeyBase64Encoded());
+        if (peer.getPublicKeyBase64Encoded() == null) return;
+        connectedPeers.remove(peer.getPublicKeyBase64Encoded(), peer);
     }
 
-    public synchronized void addKnownPeer(PeerInfo peerInfo) {
+    // A key counted twice would throw the set hash off for good, so adding a known key does nothing
+    public synchronized boolean addKnownPeer(PeerInfo peerInfo) {
+        if (!knownPeerKeys.add(peerInfo.getPublicKey())) return false;
         knownPeers.add(peerInfo);
+        knownPeerSetHash += PeerDigest.hash(peerInfo.getPublicKey());
+        return true;
     }
 
     public synchronized void removeKnownPeer(PeerInfo peerInfo) {
-        knownPeers.remove(peerInfo);
+        if (knownPeers.remove(peerInfo)) {
+            knownPeerKeys.remove(peerInfo.getPublicKey());
+            knownPeerSetHash -= PeerDigest.hash(peerInfo.getPublicKey());
+        }
+    }
+
+    public synchronized long getKnownPeerSetHash() {
+        return knownPeerSetHash;
+    }
+
+    public synchronized List<PeerInfo> getKnownPeersSnapshot() {
+        return new ArrayList<>(knownPeers);
     }
 
     public int getPort() {
         return config.getNodePort();
     }
 
+    public EphemeralKeyPool getKeyPool(KeyAgreementSuite suite) {
+        return keyPools.get(suite);
+    }
+
     private void registerProtocols() {
         messageHandler.registerProtocol(MessageType.PEER_DISCOVERY_REQUEST, peerDiscoveryProtocol);
         messageHandler.registerProtocol(MessageType.PEER_DISCOVERY_RESPONSE, peerDiscoveryProtocol);
@@ -165,6 +295,9 @@ public class NetworkManager {
         messageHandler.registerProtocol(MessageType.CIRCUIT_CREATE_RESPONSE, circuitProtocol);
         messageHandler.registerProtocol(MessageType.CIRCUIT_EXTEND_REQUEST, circuitProtocol);
         messageHandler.registerProtocol(MessageType.CIRCUIT_EXTEND_RESPONSE, circuitProtocol);
+        messageHandler.registerProtocol(MessageType.CIRCUIT_SENDME, circuitProtocol);
+        messageHandler.registerProtocol(MessageType.CIRCUIT_DESTROY, circuitProtocol);
+        messageHandler.registerProtocol(MessageType.DATA_TRANSFER, circuitProtocol);
         logger.info("Registered all protocol handlers");
     }
 }
@@ -0,0 +1,167 @@
+package dev.network;
+
+import dev.models.enums.PeerDirection;
+import dev.models.enums.WireFormat;
+import dev.utils.Logger;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// Non-blocking connection owned by a single NioEventLoop. All reads and flushes run on that loop's thread.
+public class NioConnection implements PeerConnection {
+    private final Logger logger;
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final NioServer server;
+    private final PeerDirection peerDirection;
+    @Getter
+    private final long openedAt;
+
+    @Setter
+    private SelectionKey key;
+    private Peer peer;
+
+    private final FrameDecoder decoder;
+
+    // Tail of a gathering write the socket could not take yet, and the writer waiting for it to drain
+    private ByteBuffer[] pendingFrames;
+    private Runnable pendingWriter;
+
+    public NioConnection(SocketChannel channel, NioEventLoop eventLoop, NioServer server, PeerDirection peerDirection) {
+        this.logger = Logger.getLogger(this.getClass());
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.server = server;
+        this.peerDirection = peerDirection;
+        this.openedAt = System.currentTimeMillis();
+        this.decoder = new FrameDecoder(server.getMaxFrameSize());
+    }
+
+    void onConnected() {
+        this.peer = server.createPeer(this, peerDirection);
+        peer.onConnected();
+    }
+
+    void finishConnect() throws IOException {
+        if (!channel.finishConnect()) return;
+        key.interestOps(SelectionKey.OP_READ);
+        onConnected();
+    }
+
+    void read() throws IOException {
+        int read = decoder.read(channel);
+        if (read == -1) {
+            onClosed();
+            return;
+        }
+        decoder.decode(peer);
+    }
+
+    @Override
+    public void write(ByteBuffer[] frames) throws IOException {
+        if (!channel.isOpen()) throw new IOException("Connection is closed");
+
+        channel.write(frames);
+        if (frames[frames.length - 1].hasRemaining()) {
+            pendingFrames = new ByteBuffer[]{copyRemaining(frames)};
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // The caller may recycle its buffers (pooled cells) as soon as write returns, so a tail the socket did not
+    // take is copied out. Only happens under backpressure.
+    private static ByteBuffer copyRemaining(ByteBuffer[] frames) {
+        int remaining = 0;
+        for (ByteBuffer frame : frames) remaining += frame.remaining();
+
+        ByteBuffer tail = ByteBuffer.allocate(remaining);
+        for (ByteBuffer frame : frames) tail.put(frame);
+        return tail.flip();
+    }
+
+    // The writer only runs on the event loop and only while nothing is pending, so a slow socket leaves
+    // messages in the peer's bounded outbound queue instead of piling up here
+    @Override
+    public void executeWrite(Runnable writer) {
+        eventLoop.execute(() -> {
+            if (pendingFrames != null) pendingWriter = writer;
+            else writer.run();
+        });
+    }
+
+    void flush() throws IOException {
+        if (!channel.isOpen() || pendingFrames == null) return;
+
+        channel.write(pendingFrames);
+        if (pendingFrames[pendingFrames.length - 1].hasRemaining()) return;
+
+        pendingFrames = null;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+        Runnable writer = pendingWriter;
+        pendingWriter = null;
+        if (writer != null) writer.run();
+    }
+
+    void onClosed() {
+        if (peer != null) peer.disconnect();
+        else closeQuietly();
+    }
+
+    void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            logger.warn("Error closing channel", e);
+        }
+    }
+
+    boolean isHandshakeComplete() {
+        return peer != null && peer.isHandshakeComplete();
+    }
+
+    String getRemoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    @Override
+    public String getLocalAddress() {
+        try {
+            return ((InetSocketAddress) channel.getLocalAddress()).getAddress().getHostAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Runs on the event loop, from within decode. Frames already buffered are still delivered.
+    @Override
+    public void pauseReading() {
+        if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void resumeReading() {
+        eventLoop.execute(() -> {
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        });
+    }
+
+    @Override
+    public void setWireFormat(WireFormat wireFormat) {
+        decoder.setWireFormat(wireFormat);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
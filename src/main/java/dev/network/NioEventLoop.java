@@ -0,0 +1,174 @@
+package dev.network;
+
+import dev.models.enums.PeerDirection;
+import dev.utils.CustomException;
+import dev.utils.Logger;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class NioEventLoop extends Thread {
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final Logger logger;
+    private final NioServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    public NioEventLoop(String name, NioServer server) {
+        this.setName(name);
+        this.logger = Logger.getLogger(this.getClass());
+        this.server = server;
+
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new CustomException("Could not open selector for " + name, e);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!this.isInterrupted()) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                runTasks();
+                processSelectedKeys();
+                expireHandshakes();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                logger.error("Error in event loop", e);
+            }
+        }
+
+        closeSelector();
+    }
+
+    // Runs the task on the event loop thread, waking the selector if it is parked
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    void registerAcceptor(ServerSocketChannel serverChannel) {
+        execute(() -> {
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, serverChannel);
+            } catch (IOException e) {
+                logger.error("Could not register server channel", e);
+            }
+        });
+    }
+
+    void register(SocketChannel channel, PeerDirection peerDirection) {
+        execute(() -> {
+            NioConnection connection = new NioConnection(channel, this, server, peerDirection);
+            try {
+                if (channel.isConnectionPending()) {
+                    connection.setKey(channel.register(selector, SelectionKey.OP_CONNECT, connection));
+                } else {
+                    connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                    connection.onConnected();
+                }
+            } catch (IOException e) {
+                logger.error("Could not register channel with event loop", e);
+                connection.closeQuietly();
+            }
+        });
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Error running event loop task", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+
+            if (!key.isValid()) continue;
+
+            if (key.attachment() instanceof ServerSocketChannel serverChannel) {
+                accept(serverChannel);
+                continue;
+            }
+
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isConnectable()) connection.finishConnect();
+                if (key.isValid() && key.isReadable()) connection.read();
+                if (key.isValid() && key.isWritable()) connection.flush();
+            } catch (IOException e) {
+                logger.warn("Connection error with {}: {}", connection.getRemoteAddress(), e.getMessage());
+                connection.onClosed();
+            } catch (Exception e) {
+                logger.error("Error handling connection with {}", connection.getRemoteAddress(), e);
+                connection.onClosed();
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) server.onAccepted(channel);
+        } catch (IOException e) {
+            logger.error("Could not accept connection", e);
+        }
+    }
+
+    private void expireHandshakes() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof NioConnection connection)) continue;
+            if (connection.isHandshakeComplete()) continue;
+            if (now - connection.getOpenedAt() < HANDSHAKE_TIMEOUT_MILLIS) continue;
+
+            logger.warn("Handshake timed out with {}", connection.getRemoteAddress());
+            connection.onClosed();
+        }
+    }
+
+    private void closeSelector() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection connection) {
+                connection.onClosed();
+                continue;
+            }
+
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                logger.warn("Error closing server channel", e);
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Error closing selector", e);
+        }
+    }
+
+    public void shutdown() {
+        this.interrupt();
+        selector.wakeup();
+    }
+}
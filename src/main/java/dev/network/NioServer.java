@@ -0,0 +1,103 @@
+package dev.network;
+
+import dev.models.enums.PeerDirection;
+import dev.utils.Config;
+import dev.utils.CustomException;
+import dev.utils.Logger;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Selector based transport: a fixed set of event loops owns every channel, so thread count stays flat
+public class NioServer implements Transport {
+    private final Logger logger;
+    private final Config config;
+    private final MessageQueue queue;
+    private final NetworkManager networkManager;
+    private final NioEventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger(0);
+
+    public NioServer(Config config, MessageQueue queue, NetworkManager networkManager) {
+        this.logger = Logger.getLogger(this.getClass());
+        this.config = config;
+        this.queue = queue;
+        this.networkManager = networkManager;
+
+        this.eventLoops = new NioEventLoop[config.getNioThreads()];
+        for (int i = 0; i < eventLoops.length; i++)
+            eventLoops[i] = new NioEventLoop("NioEventLoop-" + i, this);
+    }
+
+    @Override
+    public void start() {
+        for (NioEventLoop eventLoop : eventLoops) eventLoop.start();
+
+        try {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(config.getNodePort()));
+            serverChannel.configureBlocking(false);
+            eventLoops[0].registerAcceptor(serverChannel);
+            logger.info("NIO server started with {} event loops, waiting for connections on port {}", eventLoops.length, config.getNodePort());
+        } catch (BindException e) {
+            logger.error("Port " + config.getNodePort() + " is already in use.", e);
+            throw new CustomException("Port already in use: " + config.getNodePort(), e);
+        } catch (IOException e) {
+            logger.error("Could not start the server.", e);
+            throw new CustomException("Could not start the server.", e);
+        }
+
+        if (!config.isBootstrapNode()) connectToBootstrapNodes();
+    }
+
+    @Override
+    public void connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        nextEventLoop().register(channel, PeerDirection.OUTBOUND);
+    }
+
+    void onAccepted(SocketChannel channel) throws IOException {
+        logger.info("======= New connection: =======");
+        logger.info("  -> Remote Address: " + channel.getRemoteAddress());
+        logger.info("===============================");
+        channel.configureBlocking(false);
+        nextEventLoop().register(channel, PeerDirection.INBOUND);
+    }
+
+    int getMaxFrameSize() {
+        return config.getMaxFrameSize();
+    }
+
+    Peer createPeer(NioConnection connection, PeerDirection peerDirection) {
+        return new Peer(connection, queue, networkManager, peerDirection);
+    }
+
+    private NioEventLoop nextEventLoop() {
+        return eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+    }
+
+    private void connectToBootstrapNodes() {
+        try {
+            connect(config.getBootstrapNodeHost(), config.getBootstrapNodePort());
+            logger.info("Connecting to bootstrap node: " + config.getBootstrapNodeHost() + ":" + config.getBootstrapNodePort());
+        } catch (IOException e) {
+            logger.error("Could not connect to Bootstrap Node. Continuing on my own...", e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (NioEventLoop eventLoop : eventLoops) eventLoop.shutdown();
+        logger.info("Server stopped.");
+    }
+}
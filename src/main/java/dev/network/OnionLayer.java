@@ -0,0 +1,157 @@
+package dev.network;
+
+import dev.message.payload.Cell;
+import dev.message.payload.CellPool;
+import dev.models.enums.RelayCryptoMode;
+import dev.utils.CipherContext;
+import dev.utils.CipherContext.Direction;
+import dev.utils.Crypto;
+import dev.utils.CustomException;
+import dev.utils.StreamCipherContext;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+// One hop's layer of a circuit. The client holds one per hop, a relay the one it shares with the client. A cell
+// passing a hop gets its layer added or removed, the hop that creates a cell seals it and the hop it is meant for
+// opens it. Every method may hand back a different cell than it was given, the given one is released then.
+interface OnionLayer {
+    static OnionLayer of(RelayCryptoMode mode, byte[] sessionKey, CellPool cellPool) {
+        return mode == RelayCryptoMode.STREAM ? new Stream(sessionKey, cellPool) : new Gcm(sessionKey, cellPool);
+    }
+
+    // Largest payload a cell sealed for the last hop of the circuit can carry
+    static int maxPayload(RelayCryptoMode mode, int circuitLength) {
+        return mode == RelayCryptoMode.STREAM ? Stream.MAX_PAYLOAD : Cell.MAX_BODY_SIZE - circuitLength * Crypto.AES_OVERHEAD;
+    }
+
+    Cell add(Cell cell, Direction direction);
+
+    Cell remove(Cell cell, Direction direction);
+
+    // New cell carrying payload, from position to limit, under this hop's layer
+    Cell seal(UUID circuitId, ByteBuffer payload, Direction direction);
+
+    // Removes this hop's layer and checks the cell is intact. The body of the returned cell is the payload.
+    Cell open(Cell cell, Direction direction);
+
+    // Every layer is authenticated on its own and grows the cell by a nonce and a tag
+    final class Gcm implements OnionLayer {
+        private final CellPool cellPool;
+        private final CipherContext forward;
+        private final CipherContext backward;
+
+        Gcm(byte[] sessionKey, CellPool cellPool) {
+            this.cellPool = cellPool;
+            this.forward = new CipherContext(sessionKey, Direction.FORWARD);
+            this.backward = new CipherContext(sessionKey, Direction.BACKWARD);
+        }
+
+        private CipherContext context(Direction direction) {
+            return direction == Direction.FORWARD ? forward : backward;
+        }
+
+        @Override
+        public Cell add(Cell cell, Direction direction) {
+            Cell encrypted = cellPool.acquire(cell.getCircuitId());
+            encrypted.setBodyLength(context(direction).encrypt(cell.body(), encrypted.bodyForWrite()));
+            cell.release();
+            return encrypted;
+        }
+
+        @Override
+        public Cell remove(Cell cell, Direction direction) {
+            Cell decrypted = cellPool.acquire(cell.getCircuitId());
+            decrypted.setBodyLength(context(direction).decrypt(cell.body(), decrypted.bodyForWrite()));
+            cell.release();
+            return decrypted;
+        }
+
+        @Override
+        public Cell seal(UUID circuitId, ByteBuffer payload, Direction direction) {
+            Cell cell = cellPool.acquire(circuitId);
+            cell.setBodyLength(context(direction).encrypt(payload, cell.bodyForWrite()));
+            return cell;
+        }
+
+        // The tag already vouches for the layer
+        @Override
+        public Cell open(Cell cell, Direction direction) {
+            return remove(cell, direction);
+        }
+    }
+
+    // Layers are a keystream XORed over the whole body in place, every cell is a full MAX_BODY_SIZE. The payload
+    // goes behind a small header only the endpoints can read:
+    // [int digest][short payloadLength][payload, zero padded]
+    final class Stream implements OnionLayer {
+        static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+        static final int MAX_PAYLOAD = Cell.MAX_BODY_SIZE - HEADER_SIZE;
+
+        private final CellPool cellPool;
+        private final StreamCipherContext forward;
+        private final StreamCipherContext backward;
+
+        Stream(byte[] sessionKey, CellPool cellPool) {
+            this.cellPool = cellPool;
+            this.forward = new StreamCipherContext(sessionKey, Direction.FORWARD);
+            this.backward = new StreamCipherContext(sessionKey, Direction.BACKWARD);
+        }
+
+        private StreamCipherContext context(Direction direction) {
+            return direction == Direction.FORWARD ? forward : backward;
+        }
+
+        @Override
+        public Cell add(Cell cell, Direction direction) {
+            if (cell.getBodyLength() != Cell.MAX_BODY_SIZE) {
+                cell.release();
+                throw new CustomException("Cell of " + cell.getBodyLength() + " bytes on a stream circuit", null);
+            }
+            context(direction).apply(cell.body());
+            return cell;
+        }
+
+        // The keystream is its own inverse
+        @Override
+        public Cell remove(Cell cell, Direction direction) {
+            return add(cell, direction);
+        }
+
+        @Override
+        public Cell seal(UUID circuitId, ByteBuffer payload, Direction direction) {
+            int length = payload.remaining();
+            if (length > MAX_PAYLOAD)
+                throw new CustomException("Payload of " + length + " bytes exceeds " + MAX_PAYLOAD + " bytes", null);
+
+            // A freshly acquired cell is zeroed, so the padding is already in place
+            Cell cell = cellPool.acquire(circuitId);
+            cell.bodyForWrite().putInt(0).putShort((short) length).put(payload);
+            cell.setBodyLength(Cell.MAX_BODY_SIZE);
+
+            ByteBuffer body = cell.body();
+            body.putInt(body.position(), context(direction).digest(body));
+            context(direction).apply(body);
+            return cell;
+        }
+
+        @Override
+        public Cell open(Cell cell, Direction direction) {
+            add(cell, direction);
+
+            ByteBuffer body = cell.body();
+            int start = body.position();
+            int expected = body.getInt(start);
+            body.putInt(start, 0);
+            int length = body.getShort(start + Integer.BYTES) & 0xFFFF;
+            if (context(direction).digest(body) != expected || length > MAX_PAYLOAD) {
+                cell.release();
+                throw new CustomException("Cell failed the integrity check, the circuit is out of sync or tampered with", null);
+            }
+
+            body.put(start, body, start + HEADER_SIZE, length);
+            cell.setBodyLength(length);
+            return cell;
+        }
+    }
+}
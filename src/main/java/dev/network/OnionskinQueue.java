@@ -0,0 +1,88 @@
+package dev.network;
+
+import dev.utils.ExecutorFactory;
+import dev.utils.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+// CREATE handshakes of the circuits we relay, in the style of Tor's onionskin queue. Key generation and agreement
+// run on a pool of CPU workers, so a burst of new circuits never holds up the handler lanes that carry the cells of
+// existing ones. The queue is bounded. When it is full the oldest waiting handshake is dropped, its client being the
+// one most likely to have given up already, and the drop callback tells that client we are overloaded.
+class OnionskinQueue {
+    private final Logger logger;
+    private final ThreadPoolExecutor workers;
+    private final int capacity;
+
+    private final LatencyStats waitTimes = new LatencyStats();
+    private final LatencyStats handshakeTimes = new LatencyStats();
+    private final LongAdder dropped = new LongAdder();
+
+    OnionskinQueue(ExecutorFactory executorFactory, int capacity, int threads) {
+        this.logger = Logger.getLogger(OnionskinQueue.class);
+        this.capacity = Math.max(1, capacity);
+        this.workers = executorFactory.newWorkerPool("onionskin", threads, new ArrayBlockingQueue<>(this.capacity), (task, executor) -> {
+            if (executor.isShutdown()) return;
+            if (executor.getQueue().poll() instanceof Handshake oldest) {
+                dropped.increment();
+                oldest.onDropped.run();
+            }
+            executor.execute(task);
+        });
+    }
+
+    // Never blocks. onDropped runs instead of handshake if the handshake is pushed out of the queue.
+    void submit(Runnable handshake, Runnable onDropped) {
+        workers.execute(new Handshake(handshake, onDropped));
+    }
+
+    private class Handshake implements Runnable {
+        private final Runnable handshake;
+        private final Runnable onDropped;
+        private final long enqueuedAt = System.nanoTime();
+
+        Handshake(Runnable handshake, Runnable onDropped) {
+            this.handshake = handshake;
+            this.onDropped = onDropped;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            waitTimes.record(startedAt - enqueuedAt);
+            try {
+                handshake.run();
+            } catch (RuntimeException e) {
+                logger.error("Circuit handshake failed: {}", e.getMessage());
+            } finally {
+                handshakeTimes.record(System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    int getWaitingCount() {
+        return workers.getQueue().size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getWorkerCount() {
+        return workers.getCorePoolSize();
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    LatencyStats.Snapshot snapshotWaitTimes() {
+        return waitTimes.snapshotAndReset();
+    }
+
+    LatencyStats.Snapshot snapshotHandshakeTimes() {
+        return handshakeTimes.snapshotAndReset();
+    }
+}
@@ -0,0 +1,112 @@
+package dev.network;
+
+import dev.message.FrameCodec;
+import dev.message.payload.Cell;
+import dev.models.Message;
+import dev.models.enums.WireFormat;
+import dev.utils.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bounded per-peer send queue. Callers only enqueue; a single writer task drains everything that is pending,
+// encodes it and hands the whole batch to the connection as one gathering write with one flush.
+public class OutboundQueue {
+    private final Logger logger;
+    private final PeerConnection connection;
+    private final String peerName;
+    private final int capacity;
+
+    private final Queue<OutboundFrame> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean isWriterScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    public OutboundQueue(PeerConnection connection, String peerName, int capacity) {
+        this.logger = Logger.getLogger(this.getClass());
+        this.connection = connection;
+        this.peerName = peerName;
+        this.capacity = capacity;
+    }
+
+    // The wire format is captured per message, the peer may switch formats while earlier frames are still queued
+    public CompletableFuture<Void> enqueue(Message message, WireFormat wireFormat) {
+        if (isClosed.get())
+            return CompletableFuture.failedFuture(new IOException("Peer " + peerName + " is disconnected"));
+
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Outbound queue of peer " + peerName + " is full (" + capacity + ")"));
+        }
+
+        OutboundFrame frame = new OutboundFrame(message, wireFormat, new CompletableFuture<>());
+        frames.add(frame);
+        scheduleWriter();
+        return frame.completion();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) return;
+
+        IOException cause = new IOException("Peer " + peerName + " disconnected");
+        OutboundFrame frame;
+        while ((frame = frames.poll()) != null) {
+            size.decrementAndGet();
+            frame.completion().completeExceptionally(cause);
+            frame.releaseCell();
+        }
+    }
+
+    private void scheduleWriter() {
+        if (isWriterScheduled.compareAndSet(false, true)) connection.executeWrite(this::drain);
+    }
+
+    private void drain() {
+        List<OutboundFrame> batch = new ArrayList<>();
+        OutboundFrame frame;
+        while ((frame = frames.poll()) != null) batch.add(frame);
+
+        if (!batch.isEmpty()) writeBatch(batch);
+
+        isWriterScheduled.set(false);
+        if (!frames.isEmpty()) scheduleWriter();
+    }
+
+    private void writeBatch(List<OutboundFrame> batch) {
+        try {
+            List<ByteBuffer> buffers = new ArrayList<>(batch.size() * 2);
+            for (OutboundFrame frame : batch)
+                buffers.addAll(Arrays.asList(FrameCodec.encode(frame.message(), frame.wireFormat())));
+
+            connection.write(buffers.toArray(new ByteBuffer[0]));
+            logger.debug("Sent {} message(s) to peer {}", batch.size(), peerName);
+            for (OutboundFrame sent : batch) sent.completion().complete(null);
+        } catch (Exception e) {
+            logger.error("Could not send {} message(s) to peer {}: {}", batch.size(), peerName, e.getMessage());
+            for (OutboundFrame failed : batch) failed.completion().completeExceptionally(e);
+        } finally {
+            // The connection no longer references the buffers once write returns, so cells can go back to the pool
+            for (OutboundFrame frame : batch) frame.releaseCell();
+            size.addAndGet(-batch.size());
+        }
+    }
+
+    private record OutboundFrame(Message message, WireFormat wireFormat, CompletableFuture<Void> completion) {
+        void releaseCell() {
+            if (message.getPayload() instanceof Cell cell) cell.release();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package dev.network;
 
+import dev.message.FrameCodec;
 import dev.models.Event;
 import dev.models.Message;
 import dev.message.MessageBuilder;
@@ -7,24 +8,23 @@ import dev.models.enums.MessageType;
 import dev.message.payload.HandshakePayload;
 import dev.message.MessageSerializer;
 import dev.models.enums.PeerDirection;
+import dev.models.enums.WireFormat;
 import dev.utils.CustomException;
 import dev.utils.Logger;
 import lombok.Getter;
+import lombok.Setter;
 
 import java.io.*;
-import java.net.Socket;
-import java.security.KeyFactory;
 import java.security.PublicKey;
-import java.security.spec.X509EncodedKeySpec;
-import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-public class Peer implements Runnable {
+public class Peer {
     private final Logger logger;
     @Getter
     private final UUID peerId;
-    private final Socket socket;
+    private final PeerConnection connection;
     private final PeerDirection peerDirection;
     @Getter
     private final String ip;
@@ -32,89 +32,109 @@ public class Peer implements Runnable {
     private int port;
     private final NetworkManager networkManager;
     private final MessageQueue messageQueue;
-    private final BufferedReader in;
-    private final BufferedWriter out;
+    private final OutboundQueue outboundQueue;
 
     private PublicKey publicKey;
     @Getter
     private String publicKeyBase64Encoded;
+    @Getter
+    private volatile WireFormat wireFormat = WireFormat.TEXT;
+    private WireFormat negotiatedWireFormat = WireFormat.TEXT;
+    // Set hash from the peer's last digest, lets peer discovery skip peers that already know what we know
+    @Getter
+    @Setter
+    private volatile Long advertisedPeerSetHash;
 
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
 
 
-    public Peer(Socket socket, MessageQueue queue, NetworkManager networkManager, PeerDirection peerDirection) {
+    public Peer(PeerConnection connection, MessageQueue queue, NetworkManager networkManager, PeerDirection peerDirection) {
         this.logger = Logger.getLogger(Peer.class);
         this.peerId = UUID.randomUUID();
-        this.socket = socket;
+        this.connection = connection;
         this.peerDirection = peerDirection;
-        this.ip = socket.getLocalAddress().getHostAddress();
+        this.ip = connection.getLocalAddress();
         this.networkManager = networkManager;
         this.messageQueue = queue;
+        this.outboundQueue = new OutboundQueue(connection, peerId.toString(), networkManager.getConfig().getOutboundQueueSize());
+    }
 
-        try {
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        } catch (IOException e) {
-            logger.error("Could not create input/output stream for peer. {}", e);
-            throw new CustomException("Could not create input/output stream for peer. {}", e);
+    // Called by the MessageQueue while its lane for our messages is full
+    void pauseReading() {
+        logger.debug("Pausing reads from peer {}, inbound queue is full", peerId);
+        connection.pauseReading();
+    }
+
+    void resumeReading() {
+        logger.debug("Resuming reads from peer {}", peerId);
+        connection.resumeReading();
+    }
+
+    // Called by the transport once the underlying connection can be written to
+    public void onConnected() {
+        if (peerDirection == PeerDirection.OUTBOUND) sendHandshake();
+    }
+
+    // Called by the transport for every complete frame read from the connection
+    public void onFrame(String rawMessage) {
+        if (isClosed.get()) return;
+
+        if (!isRunning.get()) {
+            onHandshakeFrame(rawMessage);
+            return;
+        }
+
+        Message message = MessageSerializer.deserialize(rawMessage);
+        if (message == null) {
+            disconnect();
+            return;
         }
+        messageQueue.add(new Event(this, message));
     }
 
-    @Override
-    public void run() {
-        try {
-            if (socket.isClosed()) {
-                logger.warn("Socket was already closed before starting the peer.");
-                return;
-            }
-
-            boolean isHandshakeSuccessful = performHandshake();
-            if (!isHandshakeSuccessful) {
-                logger.warn("Handshake failed. Exiting");
-                return;
-            }
-
-            networkManager.registerPeer(this);
-
-            if (peerDirection == PeerDirection.OUTBOUND)
-                networkManager.getPeerDiscoveryProtocol().requestPeers(this); // TODO: remove reference to PeerDiscoveryProtocol
-
-            this.isRunning.set(true);
-
-            while (this.isRunning.get()) {
-                try {
-                    Message message = MessageSerializer.deserialize(in.readLine());
-                    if (message == null) {
-                        disconnect();
-                        break;
-                    }
-                    messageQueue.getQueue().add(new Event(this, message));
-                } catch (IOException e) {
-                    logger.error("Could not read message from peer: " + e.getMessage(), e);
-                    isRunning.set(false);
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error handling peer connection: {}", this.peerId, e);
-            throw new CustomException("Error handling peer connection: " + this.peerId, e);
-        } finally {
+    // Called by the transport for every complete binary frame. The array belongs to the transport and is reused.
+    public void onFrame(byte[] frame, int offset, int length) {
+        if (isClosed.get()) return;
+
+        if (!isRunning.get()) {
+            logger.warn("Received binary frame before handshake from {}", this.peerId);
             disconnect();
+            return;
         }
+
+        messageQueue.add(new Event(this, FrameCodec.decode(frame, offset, length, networkManager.getCellPool())));
     }
 
-    private boolean performHandshake() {
+    public boolean isHandshakeComplete() {
+        return isRunning.get();
+    }
+
+    private void onHandshakeFrame(String rawMessage) {
+        boolean isHandshakeSuccessful = performHandshake(rawMessage);
+        if (!isHandshakeSuccessful) {
+            logger.warn("Handshake failed. Exiting");
+            disconnect();
+            return;
+        }
+
+        // Both sides have now seen each other's handshake, so every following frame uses the agreed format
+        this.wireFormat = negotiatedWireFormat;
+        connection.setWireFormat(negotiatedWireFormat);
+        logger.debug("Using {} wire format with peer {}", negotiatedWireFormat, this.peerId);
+
+        this.isRunning.set(true);
+        networkManager.registerPeer(this);
+
+        if (peerDirection == PeerDirection.OUTBOUND)
+            networkManager.getPeerDiscoveryProtocol().requestPeers(this); // TODO: remove reference to PeerDiscoveryProtocol
+    }
+
+    private boolean performHandshake(String rawMessage) {
         try {
-            if (peerDirection == PeerDirection.OUTBOUND) {
-                sendHandshake();
-                return waitForHandshakeResponse();
-            } else {
-                boolean received = waitForHandshakeResponse();
-                if (received) {
-                    sendHandshake();
-                    return true;
-                }
-                return false;
-            }
+            boolean received = acceptHandshake(rawMessage);
+            if (received && peerDirection == PeerDirection.INBOUND) sendHandshake();
+            return received;
         } catch (Exception e) {
             logger.error("Handshake failed", e);
             return false;
@@ -122,25 +142,19 @@ public class Peer implements Runnable {
     }
 
     private void sendHandshake() {
-        Message handshakeMessage = MessageBuilder.buildHandshakeMessage(networkManager.getEncodedPublicKey(), networkManager.getPort());
+        Message handshakeMessage = MessageBuilder.buildHandshakeMessage(networkManager.getEncodedPublicKey(), networkManager.getPort(), networkManager.getConfig().getWireFormat());
         this.send(handshakeMessage);
         logger.info("Sent handshake to {}:{}", getIp(), getPort());
     }
 
-    private boolean waitForHandshakeResponse() throws Exception {
-        socket.setSoTimeout(5000);
-        String rawMessage = in.readLine();
-
+    private boolean acceptHandshake(String rawMessage) throws Exception {
         if (rawMessage == null) {
             logger.warn("Connection closed during handshake");
             return false;
         }
 
         Message message = MessageSerializer.deserialize(rawMessage);
-        if (message == null) {
-            disconnect();
-            return false;
-        }
+        if (message == null) return false;
 
         if (message.getMessageType() != MessageType.HANDSHAKE) {
             logger.warn("Expected {}, got: {}", MessageType.HANDSHAKE, message.getMessageType());
@@ -149,39 +163,42 @@ public class Peer implements Runnable {
 
         if (!(message.getPayload() instanceof HandshakePayload handshakePayload)) return false;
 
-        // TODO: PEER CLASS SHOULD NOT DECODE THE PUBLIC KEY, MOVE THIS SOMEWHERE ELSE
+        // Identity keys are always secp256r1, only circuit handshakes negotiate a key agreement suite
         publicKeyBase64Encoded = handshakePayload.getPublicKeyBase64Encoded();
-        byte[] publicKeyBytes = Base64.getDecoder().decode(publicKeyBase64Encoded);
-        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(publicKeyBytes);
-        KeyFactory keyFactory = KeyFactory.getInstance("EC"); // TODO: Use config for algorithm
-        this.publicKey = keyFactory.generatePublic(keySpec);
+        this.publicKey = networkManager.getCrypto().decodePublicKey(publicKeyBase64Encoded);
         this.port = handshakePayload.getPort();
+        this.negotiatedWireFormat = networkManager.getConfig().getWireFormat() == WireFormat.BINARY && handshakePayload.getWireFormat() == WireFormat.BINARY
+                ? WireFormat.BINARY
+                : WireFormat.TEXT;
 
-        socket.setSoTimeout(0);
         logger.info("Received handshake from {}", this.peerId);
         return true;
     }
 
-    public void send(Message message) {
+    // Never blocks: the message is queued for this peer's writer. The future completes once the frame has been
+    // written, or fails straight away when the outbound queue is full or the peer is gone.
+    public CompletableFuture<Void> send(Message message) {
 //        if (message.getSignature() == null) {
 //            message = networkManager.getCrypto().signMessage(message);
 //        }
 
-        try {
-            synchronized (out) {
-                out.write(MessageSerializer.serialize(message) + "\n");
-                out.flush();
-                logger.info("Sent message of type {} to peer {}", message.getMessageType(), this.peerId);
-            }
-        } catch (IOException e) {
-            logger.error("Could not send message to peer..." + e.getMessage());
-        }
+        CompletableFuture<Void> completion = outboundQueue.enqueue(message, wireFormat);
+        if (completion.isCompletedExceptionally())
+            logger.warn("Dropped message of type {} to peer {}: {}", message.getMessageType(), this.peerId, completion.exceptionNow().getMessage());
+        return completion;
+    }
+
+    public boolean isClosed() {
+        return isClosed.get();
     }
 
     public void disconnect() {
+        if (!isClosed.compareAndSet(false, true)) return;
+
         try {
             isRunning.set(false);
-            socket.close();
+            outboundQueue.close();
+            connection.close();
             networkManager.unregisterPeer(this);
             logger.warn("Closed connection with peer: {}", this.peerId);
         } catch (IOException e) {
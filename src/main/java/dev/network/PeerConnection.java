@@ -0,0 +1,28 @@
+package dev.network;
+
+import dev.models.enums.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface PeerConnection {
+    String getLocalAddress();
+
+    // Writes a batch of already encoded frames with a single gathering write and one flush.
+    // Only called from a task passed to executeWrite. The buffers are not referenced after it returns.
+    void write(ByteBuffer[] frames) throws IOException;
+
+    // Runs the outbound writer task once the connection can take more data
+    void executeWrite(Runnable writer);
+
+    // Stops taking frames off the connection until resumeReading, called from the thread that delivers frames
+    void pauseReading();
+
+    // Safe to call from any thread
+    void resumeReading();
+
+    // Switches how incoming bytes are cut into frames, takes effect from the next frame on
+    void setWireFormat(WireFormat wireFormat);
+
+    void close() throws IOException;
+}
@@ -0,0 +1,104 @@
+package dev.network;
+
+import dev.models.Event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+// Bounded multi-producer, single-consumer ring with a sequence number per slot. A producer claims a position with
+// one CAS on the tail and publishes it by advancing the slot's sequence; the consumer never needs a CAS. Slots and
+// sequences are allocated up front, so handing over an event allocates nothing.
+//
+// Slot sequence for position p: p while free, p + 1 once the event is published, p + size after it was consumed,
+// which makes the slot free for position p + size.
+class RingEventBuffer implements EventBuffer {
+    // Left in a slot whose event was taken out by removeFirst, the consumer skips it
+    private static final Event REMOVED = new Event(null, null);
+
+    private final AtomicReferenceArray<Event> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Only written by the consumer
+    private volatile long head = 0;
+
+    RingEventBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    // A full ring makes the producer wait for the consumer, the lane's overload policy keeps that rare
+    @Override
+    public void add(Event event) {
+        while (!offer(event)) Thread.yield();
+    }
+
+    boolean offer(Event event) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference < 0) return false;
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                slots.set(index, event);
+                sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public Event poll() {
+        while (true) {
+            long position = head;
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) return null;
+
+            Event event = slots.getAndSet(index, null);
+            sequences.set(index, position + mask + 1);
+            head = position + 1;
+            if (event != REMOVED) return event;
+        }
+    }
+
+    @Override
+    public int drainTo(Event[] batch, int offset, int max) {
+        int count = 0;
+        Event event;
+        while (count < max && (event = poll()) != null) batch[offset + count++] = event;
+        return count;
+    }
+
+    // Claimed positions count as well, including ones a producer has not published yet
+    @Override
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    // Races with the consumer are settled by the CAS on the slot, exactly one side gets the event
+    @Override
+    public Event removeFirst(Predicate<Event> filter) {
+        long end = tail.get();
+        for (long position = head; position < end; position++) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) continue;
+
+            Event event = slots.get(index);
+            if (event == null || event == REMOVED || !filter.test(event)) continue;
+            if (slots.compareAndSet(index, event, REMOVED)) return event;
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) ;
+    }
+}
@@ -11,7 +11,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
 
-public class Server extends Thread {
+public class Server extends Thread implements Transport {
     private final Logger logger;
     private final ExecutorService peerExecutor;
     private final Config config;
@@ -40,7 +40,7 @@ public class Server extends Thread {
                 logger.info("  -> Remote IP:   " + clientSocket.getInetAddress().getHostAddress());
                 logger.info("  -> Remote Port: " + clientSocket.getPort());
                 logger.info("===============================");
-                peerExecutor.submit(new Peer(clientSocket, queue, networkManager, PeerDirection.INBOUND));
+                startPeer(clientSocket, PeerDirection.INBOUND);
             }
         } catch (BindException e) {
             logger.error("Port " + config.getNodePort() + " is already in use.", e);
@@ -53,16 +53,28 @@ public class Server extends Thread {
         }
     }
 
+    @Override
+    public void connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        startPeer(socket, PeerDirection.OUTBOUND);
+    }
+
+    private void startPeer(Socket socket, PeerDirection peerDirection) {
+        SocketConnection connection = new SocketConnection(socket, config.getMaxFrameSize(), peerExecutor);
+        connection.setPeer(new Peer(connection, queue, networkManager, peerDirection));
+        peerExecutor.submit(connection);
+    }
+
     private void connectToBootstrapNodes() {
         try {
-            Socket socket = new Socket(config.getBootstrapNodeHost(), config.getBootstrapNodePort());
-            logger.info("Connected to bootstrap node: " + socket.getRemoteSocketAddress());
-            peerExecutor.submit(new Peer(socket, queue, networkManager, PeerDirection.OUTBOUND));
+            connect(config.getBootstrapNodeHost(), config.getBootstrapNodePort());
+            logger.info("Connected to bootstrap node: " + config.getBootstrapNodeHost() + ":" + config.getBootstrapNodePort());
         } catch (IOException e) {
             logger.error("Could not connect to Bootstrap Node. Continuing on my own...", e);
         }
     }
 
+    @Override
     public void shutdown() {
         this.interrupt();
         peerExecutor.shutdownNow();
@@ -0,0 +1,135 @@
+package dev.network;
+
+import dev.message.payload.Cell;
+import dev.models.enums.WireFormat;
+import dev.utils.CustomException;
+import dev.utils.Logger;
+import lombok.Setter;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+// Blocking connection: one thread per peer, parked on read() for the lifetime of the link
+public class SocketConnection implements PeerConnection, Runnable {
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final FrameDecoder decoder;
+    private final Executor writeExecutor;
+    private final byte[] directCopyBuffer = new byte[Cell.SIZE];
+    @Setter
+    private Peer peer;
+    // Guarded by this
+    private boolean isReadingPaused = false;
+
+    public SocketConnection(Socket socket, int maxFrameSize, Executor writeExecutor) {
+        this.logger = Logger.getLogger(SocketConnection.class);
+        this.socket = socket;
+        this.decoder = new FrameDecoder(maxFrameSize);
+        this.writeExecutor = writeExecutor;
+
+        try {
+            this.in = socket.getInputStream();
+            this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        } catch (IOException e) {
+            logger.error("Could not create input/output stream for peer. {}", e);
+            throw new CustomException("Could not create input/output stream for peer. {}", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (socket.isClosed()) {
+                logger.warn("Socket was already closed before starting the peer.");
+                return;
+            }
+
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            peer.onConnected();
+
+            boolean isHandshakeTimeoutCleared = false;
+            while (decoder.read(in) != -1) {
+                decoder.decode(peer);
+                awaitReading();
+
+                if (!isHandshakeTimeoutCleared && peer.isHandshakeComplete()) {
+                    socket.setSoTimeout(0);
+                    isHandshakeTimeoutCleared = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SocketTimeoutException e) {
+            logger.warn("Handshake timed out with peer: {}", peer.getPeerId());
+        } catch (IOException e) {
+            if (!socket.isClosed()) logger.error("Could not read message from peer: " + e.getMessage(), e);
+        } catch (Exception e) {
+            logger.error("Error handling peer connection: {}", peer.getPeerId(), e);
+        } finally {
+            peer.disconnect();
+        }
+    }
+
+    @Override
+    public String getLocalAddress() {
+        return socket.getLocalAddress().getHostAddress();
+    }
+
+    @Override
+    public void write(ByteBuffer[] frames) throws IOException {
+        for (ByteBuffer frame : frames) {
+            if (frame.hasArray()) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                continue;
+            }
+
+            // Direct cell buffers have no backing array
+            while (frame.hasRemaining()) {
+                int length = Math.min(frame.remaining(), directCopyBuffer.length);
+                frame.get(directCopyBuffer, 0, length);
+                out.write(directCopyBuffer, 0, length);
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public void executeWrite(Runnable writer) {
+        writeExecutor.execute(writer);
+    }
+
+    // The reader thread finishes the frames it already has and then waits in awaitReading
+    @Override
+    public synchronized void pauseReading() {
+        isReadingPaused = true;
+    }
+
+    @Override
+    public synchronized void resumeReading() {
+        isReadingPaused = false;
+        notifyAll();
+    }
+
+    private synchronized void awaitReading() throws InterruptedException {
+        while (isReadingPaused && !socket.isClosed()) wait();
+    }
+
+    @Override
+    public void setWireFormat(WireFormat wireFormat) {
+        decoder.setWireFormat(wireFormat);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        resumeReading();
+    }
+}
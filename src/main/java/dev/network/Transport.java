@@ -0,0 +1,11 @@
+package dev.network;
+
+import java.io.IOException;
+
+public interface Transport {
+    void start();
+
+    void connect(String host, int port) throws IOException;
+
+    void shutdown();
+}
@@ -1,13 +1,10 @@
 package dev.protocol;
 
-import dev.message.payload.CircuitCreatePayload;
 import dev.models.Message;
 import dev.network.CircuitManager;
 import dev.network.Peer;
 import dev.utils.Logger;
 
-import java.util.UUID;
-
 public class CircuitProtocol implements Protocol {
     private final Logger logger;
     private final CircuitManager circuitManager;
@@ -32,15 +29,22 @@ public class CircuitProtocol implements Protocol {
             case CIRCUIT_EXTEND_RESPONSE:
                 handleCircuitExtendResponse(peer, message);
                 break;
+            case CIRCUIT_SENDME:
+                handleCircuitSendme(peer, message);
+                break;
+            case DATA_TRANSFER:
+                handleCircuitData(peer, message);
+                break;
+            case CIRCUIT_DESTROY:
+                handleCircuitDestroy(peer, message);
+                break;
             default:
                 logger.warn("CircuitProtocol received unexpected message type: {}", message.getMessageType());
         }
     }
 
     private void handleCircuitCreateRequest(Peer peer, Message message) {
-        CircuitCreatePayload payload = (CircuitCreatePayload) message.getPayload();
-        UUID circuitId = payload.getCircuitId();
-        circuitManager.onCircuitCreateRequest(peer, circuitId, payload);
+        circuitManager.onCircuitCreateRequest(peer, message);
     }
 
     private void handleCircuitCreateResponse(Peer peer, Message message) {
@@ -55,4 +59,16 @@ public class CircuitProtocol implements Protocol {
         circuitManager.onCircuitExtendResponse(peer, message);
     }
 
+    private void handleCircuitSendme(Peer peer, Message message) {
+        circuitManager.onCircuitSendme(peer, message);
+    }
+
+    private void handleCircuitData(Peer peer, Message message) {
+        circuitManager.onCircuitData(peer, message);
+    }
+
+    private void handleCircuitDestroy(Peer peer, Message message) {
+        circuitManager.onCircuitDestroy(peer, message);
+    }
+
 }
@@ -26,18 +26,17 @@ public class InputHandler extends Thread {
     }
 
     private void processRequest(String input) {
-        if (!circuitManager.isCircuitReady()) {
-            System.out.println("No active circuit. Please try again in short.");
-            circuitManager.init();
-            return; // TODO: returning immediately. Maybe queue the request?
-        }
-
         if (!isUrlValid(input)) {
             System.out.println("Invalid URL. Must start with http:// or https://");
             return;
         }
 
-        circuitManager.sendRequest(input);
+        // Without a circuit the request waits for the one being built
+        if (!circuitManager.isCircuitReady()) System.out.println("No active circuit yet, sending once one is built.");
+        if (!circuitManager.sendRequest(input)) {
+            System.out.println("Too much is waiting to be sent already. Please try again in short.");
+            return;
+        }
         System.out.printf("you entered '%s'%n", input);
     }
 
@@ -5,56 +5,53 @@ import dev.models.Message;
 import dev.network.MessageQueue;
 import dev.models.enums.MessageType;
 import dev.network.Peer;
+import dev.utils.Config;
 import dev.utils.Logger;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-public class MessageHandler extends Thread implements Protocol {
+// Runs one thread per MessageQueue lane. Protocols are called concurrently for different circuits, but never for
+// two messages of the same circuit, and control messages are handled by a single thread of their own.
+public class MessageHandler implements Protocol {
+    // Events taken from a lane per wakeup
+    private static final int BATCH_SIZE = 64;
+
     private final Logger logger;
     private final MessageQueue messageQueue;
     private final Map<MessageType, Protocol> protocolHandlers;
-    private final ArrayList<String> history = new ArrayList<>();
+    private final Thread[] workers;
+    private final long replayWindowMillis;
+    private final long replaySkewMillis;
+    private final int replayMaxIds;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
 
-    public MessageHandler(MessageQueue messageQueue) {
-        this.setName("MessageHandler");
+    public MessageHandler(MessageQueue messageQueue, Config config) {
         this.logger = Logger.getLogger(this.getClass());
         this.messageQueue = messageQueue;
         this.protocolHandlers = new HashMap<>();
+        this.workers = new Thread[messageQueue.getLaneCount()];
+        this.replayWindowMillis = TimeUnit.SECONDS.toMillis(config.getReplayWindowInSeconds());
+        this.replaySkewMillis = TimeUnit.SECONDS.toMillis(config.getReplaySkewInSeconds());
+        this.replayMaxIds = config.getReplayMaxIds();
     }
 
+    // Protocols have to be registered before start, the map is not modified once the workers run
     public void registerProtocol(MessageType messageType, Protocol protocol) {
         protocolHandlers.put(messageType, protocol);
         logger.info("Registered protocol handler for: {}", messageType);
     }
 
-    @Override
-    public void run() {
+    public void start() {
         isRunning.set(true);
-        logger.info("MessageProcessor started");
-
-        while (isRunning.get() && !Thread.currentThread().isInterrupted()) {
-            try {
-                Event event = messageQueue.getQueue().take();
-                if (history.contains(event.message().getMessageId())) {
-                    continue;
-                }
-
-                history.add(event.message().getMessageId());
-                digest(event.sender(), event.message());
-            } catch (InterruptedException e) {
-                logger.info("MessageProcessor interrupted");
-                Thread.currentThread().interrupt();
-                break;
-            } catch (Exception e) {
-                logger.error("Error processing message", e);
-            }
+        for (int lane = 0; lane < workers.length; lane++) {
+            String name = lane == MessageQueue.CONTROL_LANE ? "MessageHandler-control" : "MessageHandler-" + lane;
+            workers[lane] = new Thread(new Worker(messageQueue.getLane(lane)), name);
+            workers[lane].start();
         }
-
-        logger.info("MessageProcessor stopped");
+        logger.info("MessageProcessor started with {} circuit lane(s)", messageQueue.getCircuitLaneCount());
     }
 
     @Override
@@ -79,6 +76,58 @@ public class MessageHandler extends Thread implements Protocol {
     public void shutdown() {
         logger.info("Shutting down MessageProcessor");
         isRunning.set(false);
-        this.interrupt();
+        for (Thread worker : workers)
+            if (worker != null) worker.interrupt();
+    }
+
+    // A duplicate always lands in the same lane as the original, so each lane can keep its own filter
+    private class Worker implements Runnable {
+        private final MessageQueue.Lane lane;
+        private final ReplayFilter replayFilter;
+
+        Worker(MessageQueue.Lane lane) {
+            this.lane = lane;
+            this.replayFilter = new ReplayFilter(replayWindowMillis, replaySkewMillis, replayMaxIds, System.currentTimeMillis());
+        }
+
+        @Override
+        public void run() {
+            Event[] batch = new Event[BATCH_SIZE];
+            while (isRunning.get() && !Thread.currentThread().isInterrupted()) {
+                int count;
+                try {
+                    count = lane.drain(batch);
+                } catch (InterruptedException e) {
+                    logger.info("{} interrupted", Thread.currentThread().getName());
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                // One clock read per batch, the replay window is far coarser than a batch
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < count; i++) {
+                    Event event = batch[i];
+                    batch[i] = null;
+                    try {
+                        handle(event, now);
+                    } catch (Exception e) {
+                        logger.error("Error processing message", e);
+                    }
+                }
+            }
+
+            logger.info("{} stopped", Thread.currentThread().getName());
+        }
+
+        private void handle(Event event, long now) {
+            Message message = event.message();
+            ReplayFilter.Verdict verdict = replayFilter.check(message.getIdPrefix(), message.getIdSequence(), message.getTimestamp(), now);
+            if (verdict != ReplayFilter.Verdict.ACCEPTED) {
+                logger.debug("Dropping {} message {} from peer {}", verdict, message.getMessageId(), event.sender().getPeerId());
+                return;
+            }
+
+            digest(event.sender(), message);
+        }
     }
 }
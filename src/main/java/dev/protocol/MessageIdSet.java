@@ -0,0 +1,82 @@
+package dev.protocol;
+
+import java.util.Arrays;
+
+// Open addressing hash set of 128-bit message ids kept in two parallel long arrays, so adding an id neither boxes
+// nor allocates. The all-zero id marks an empty slot and is tracked separately.
+class MessageIdSet {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] prefixes = new long[INITIAL_CAPACITY];
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private boolean containsZero = false;
+
+    // Returns false when the id was already present
+    boolean add(long prefix, long sequence) {
+        if (prefix == 0 && sequence == 0) {
+            if (containsZero) return false;
+            containsZero = true;
+            return true;
+        }
+
+        int mask = prefixes.length - 1;
+        int slot = hash(prefix, sequence) & mask;
+        while (prefixes[slot] != 0 || sequences[slot] != 0) {
+            if (prefixes[slot] == prefix && sequences[slot] == sequence) return false;
+            slot = (slot + 1) & mask;
+        }
+
+        prefixes[slot] = prefix;
+        sequences[slot] = sequence;
+        if (++size * 2 > prefixes.length) grow();
+        return true;
+    }
+
+    boolean contains(long prefix, long sequence) {
+        if (prefix == 0 && sequence == 0) return containsZero;
+
+        int mask = prefixes.length - 1;
+        int slot = hash(prefix, sequence) & mask;
+        while (prefixes[slot] != 0 || sequences[slot] != 0) {
+            if (prefixes[slot] == prefix && sequences[slot] == sequence) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    // Keeps the arrays, a filter that rotates generations never allocates again once it has grown
+    void clear() {
+        Arrays.fill(prefixes, 0);
+        Arrays.fill(sequences, 0);
+        size = 0;
+        containsZero = false;
+    }
+
+    int size() {
+        return containsZero ? size + 1 : size;
+    }
+
+    private void grow() {
+        long[] oldPrefixes = prefixes;
+        long[] oldSequences = sequences;
+        prefixes = new long[oldPrefixes.length * 2];
+        sequences = new long[oldSequences.length * 2];
+
+        int mask = prefixes.length - 1;
+        for (int i = 0; i < oldPrefixes.length; i++) {
+            if (oldPrefixes[i] == 0 && oldSequences[i] == 0) continue;
+            int slot = hash(oldPrefixes[i], oldSequences[i]) & mask;
+            while (prefixes[slot] != 0 || sequences[slot] != 0) slot = (slot + 1) & mask;
+            prefixes[slot] = oldPrefixes[i];
+            sequences[slot] = oldSequences[i];
+        }
+    }
+
+    private static int hash(long prefix, long sequence) {
+        long h = prefix * 0x9E3779B97F4A7C15L + sequence;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ h >>> 29);
+    }
+}
@@ -0,0 +1,73 @@
+package dev.protocol;
+
+import dev.message.payload.PeerDigestPayload;
+
+import java.security.SecureRandom;
+import java.util.Collection;
+
+/**
+ * Digest of a peer set for anti-entropy peer exchange. A digest carries the set's size, an order independent set
+ * hash (the sum of the 64-bit hashes of every public key) and a bloom filter of the same hashes. Two nodes that know
+ * the same peers have the same set hash, so a converged network stops exchanging peers altogether; otherwise the
+ * bloom filter tells the other side which entries to send.
+ */
+public final class PeerDigest {
+    // About 1% false positives at 10 bits per peer and 7 probes
+    private static final int BITS_PER_PEER = 10;
+    private static final int PROBES = 7;
+    private static final int MAX_WORDS = 0xFFFF;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private PeerDigest() {
+    }
+
+    // 64-bit FNV-1a over the Base64 key, finished with the murmur3 mixer
+    public static long hash(String publicKey) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < publicKey.length(); i++) {
+            hash ^= publicKey.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    public static PeerDigestPayload of(Collection<String> publicKeys, long setHash, boolean reciprocate) {
+        long seed = random.nextLong();
+        int words = Math.min(MAX_WORDS, Math.max(1, (publicKeys.size() * BITS_PER_PEER + 63) / 64));
+        long[] bloom = new long[words];
+        for (String publicKey : publicKeys) {
+            long h1 = mix(hash(publicKey) ^ seed);
+            long h2 = mix(h1) | 1;
+            int bits = words * 64;
+            for (int i = 0; i < PROBES; i++) {
+                int bit = (int) Long.remainderUnsigned(h1 + i * h2, bits);
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return new PeerDigestPayload(publicKeys.size(), setHash, seed, reciprocate, bloom);
+    }
+
+    public static boolean mightContain(PeerDigestPayload digest, String publicKey) {
+        long[] bloom = digest.getBloom();
+        if (bloom.length == 0) return false;
+
+        long h1 = mix(hash(publicKey) ^ digest.getSeed());
+        long h2 = mix(h1) | 1;
+        int bits = bloom.length * 64;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, bits);
+            if ((bloom[bit >>> 6] & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -2,6 +2,7 @@ package dev.protocol;
 
 import dev.models.Message;
 import dev.message.MessageBuilder;
+import dev.message.payload.PeerDigestPayload;
 import dev.message.payload.PeerResponsePayload;
 import dev.network.NetworkManager;
 import dev.network.Peer;
@@ -9,7 +10,6 @@ import dev.models.PeerInfo;
 import dev.utils.Logger;
 
 import java.util.*;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -21,7 +21,7 @@ public class PeerDiscoveryProtocol implements Protocol {
     public PeerDiscoveryProtocol(NetworkManager networkManager) {
         this.logger = Logger.getLogger(this.getClass());
         this.networkManager = networkManager;
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.scheduler = networkManager.getExecutorFactory().newScheduler("peer-discovery", 1);
     }
 
     @Override
@@ -47,12 +47,31 @@ public class PeerDiscoveryProtocol implements Protocol {
     }
 
     private void handlePeerDiscoveryRequest(Peer peer, Message message) {
-        logger.info("Received peer request from: {}", peer.getPeerId());
+        PeerDigestPayload digest = (PeerDigestPayload) message.getPayload();
+        if (digest == null) {
+            // Nodes that predate digests ask without one, they still get the full list
+            List<PeerInfo> peerList = networkManager.getKnownPeersSnapshot();
+            peer.send(MessageBuilder.buildPeerResponseMessage(peerList));
+            logger.info("Sent {} peers to: {}", peerList.size(), peer.getPeerId());
+            return;
+        }
+
+        peer.setAdvertisedPeerSetHash(digest.getSetHash());
+        if (digest.getSetHash() == networkManager.getKnownPeerSetHash()) {
+            logger.debug("Peer set of {} is in sync ({} peers)", peer.getPeerId(), digest.getPeerCount());
+            return;
+        }
 
-        List<PeerInfo> peerList = networkManager.getKnownPeers();
-        Message response = MessageBuilder.buildPeerResponseMessage(peerList);
-        peer.send(response);
-        logger.info("Sent {} peers to: {}", peerList.size(), peer.getPeerId());
+        List<PeerInfo> missing = networkManager.getKnownPeersSnapshot().stream()
+                .filter(p -> !PeerDigest.mightContain(digest, p.getPublicKey()))
+                .toList();
+        if (!missing.isEmpty()) {
+            peer.send(MessageBuilder.buildPeerResponseMessage(missing));
+            logger.info("Sent {} missing peers to: {}", missing.size(), peer.getPeerId());
+        }
+
+        // The requester may in turn know peers we do not, so pull from it once, without asking for another round
+        if (digest.isReciprocate()) peer.send(MessageBuilder.buildPeerRequestMessage(buildDigest(false)));
     }
 
     private void handlePeerDiscoveryResponse(Peer peer, Message message) {
@@ -72,8 +91,7 @@ public class PeerDiscoveryProtocol implements Protocol {
             if (publicKey != null && host != null && port != null) {
                 PeerInfo newPeerInfo = new PeerInfo(publicKey, host, port);
                 if (isKnown(newPeerInfo) || isSelf(newPeerInfo.getPublicKey())) continue;
-                networkManager.addKnownPeer(newPeerInfo);
-                newPeers++;
+                if (networkManager.addKnownPeer(newPeerInfo)) newPeers++;
             }
         }
 
@@ -92,20 +110,37 @@ public class PeerDiscoveryProtocol implements Protocol {
 
     public void requestPeers(Peer peer) {
         logger.info("Requesting peers from peer: {}", peer.getPeerId());
-        Message request = MessageBuilder.buildPeerRequestMessage();
-        peer.send(request);
+        peer.send(MessageBuilder.buildPeerRequestMessage(buildDigest(true)));
     }
 
+    // Only asks peers whose last digest differs from our own set, a converged network sends nothing here
     public void broadcastPeerRequest() {
-        logger.debug("Broadcasting peer request to all connected peers: {}", networkManager.getConnectedPeers().size());
-        Message message = MessageBuilder.buildPeerRequestMessage();
+        long setHash = networkManager.getKnownPeerSetHash();
+        Message message = null;
+        int skipped = 0;
 
         for (Peer peer : networkManager.getConnectedPeers().values()) {
+            Long advertised = peer.getAdvertisedPeerSetHash();
+            if (advertised != null && advertised == setHash) {
+                skipped++;
+                continue;
+            }
+            if (message == null) message = MessageBuilder.buildPeerRequestMessage(buildDigest(true));
+
             try {
                 peer.send(message);
             } catch (Exception e) {
                 logger.error("Failed to send message to peer: {}", peer.getPeerId(), e);
             }
         }
+        logger.debug("Broadcast peer digest, {} of {} connected peers already in sync", skipped, networkManager.getConnectedPeers().size());
+    }
+
+    private PeerDigestPayload buildDigest(boolean reciprocate) {
+        List<PeerInfo> knownPeers = networkManager.getKnownPeersSnapshot();
+        List<String> publicKeys = new ArrayList<>(knownPeers.size() + 1);
+        for (PeerInfo peerInfo : knownPeers) publicKeys.add(peerInfo.getPublicKey());
+        publicKeys.add(networkManager.getEncodedPublicKey());
+        return PeerDigest.of(publicKeys, networkManager.getKnownPeerSetHash(), reciprocate);
     }
 }
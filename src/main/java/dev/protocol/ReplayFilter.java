@@ -0,0 +1,55 @@
+package dev.protocol;
+
+// Duplicate and replay filter with bounded memory. Ids go into the current of two MessageIdSet generations and are
+// looked up in both. The older generation is dropped every window + skew, or early once the current one holds
+// maxIds, so memory stays bounded however fast messages arrive.
+//
+// An id is only remembered for as long as its generation is kept, so a message that was first seen before the
+// oldest kept generation started could be replayed unnoticed. That is why the filter also rejects messages by their
+// timestamp: anything older than the window, anything more than the allowed clock skew in the future, and anything
+// sent before the oldest generation started. In normal operation the last bound is never the tightest one; when the
+// generations rotate early under load it narrows the window instead of letting replays through.
+// Not thread safe, every MessageHandler lane owns one.
+class ReplayFilter {
+    enum Verdict { ACCEPTED, DUPLICATE, STALE, FUTURE }
+
+    private final long windowMillis;
+    private final long skewMillis;
+    private final int maxIds;
+
+    private MessageIdSet current = new MessageIdSet();
+    private MessageIdSet previous = new MessageIdSet();
+    private long currentStart;
+    private long previousStart;
+
+    ReplayFilter(long windowMillis, long skewMillis, int maxIds, long now) {
+        this.windowMillis = windowMillis;
+        this.skewMillis = skewMillis;
+        this.maxIds = maxIds;
+        this.currentStart = now;
+        // As if an empty generation came before, so nothing is rejected as predating it
+        this.previousStart = now - windowMillis - skewMillis;
+    }
+
+    Verdict check(long prefix, long sequence, long timestamp, long now) {
+        if (now - currentStart >= windowMillis + skewMillis || current.size() >= maxIds) rotate(now);
+
+        if (timestamp > now + skewMillis) return Verdict.FUTURE;
+        if (timestamp < now - windowMillis || timestamp < previousStart) return Verdict.STALE;
+        if (previous.contains(prefix, sequence) || !current.add(prefix, sequence)) return Verdict.DUPLICATE;
+        return Verdict.ACCEPTED;
+    }
+
+    int size() {
+        return current.size() + previous.size();
+    }
+
+    private void rotate(long now) {
+        MessageIdSet dropped = previous;
+        previous = current;
+        previousStart = currentStart;
+        current = dropped;
+        current.clear();
+        currentStart = now;
+    }
+}
@@ -0,0 +1,109 @@
+package dev.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AES-256-GCM for one direction of one hop of a circuit. The key spec is built once, the {@link Cipher} comes from
+ * a per-thread cache and nonces are a counter instead of random bytes:
+ * <pre>
+ * [int direction][long counter]
+ * </pre>
+ * Client and relay share one session key for both directions, the direction prefix keeps their nonces apart, and
+ * each (key, direction) pair has a single encrypting side, so a nonce is never used twice. The nonce still travels
+ * in front of the ciphertext, so the decrypting side needs no state and tolerates lost cells.
+ */
+public class CipherContext {
+    private static final String AES_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AES_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("AES/GCM is not available", e);
+        }
+    });
+
+    // Initialized by whoever uses it, never shared between threads
+    static Cipher cipher() {
+        return ciphers.get();
+    }
+
+    public enum Direction {
+        // Client towards the exit
+        FORWARD,
+        // Exit towards the client
+        BACKWARD
+    }
+
+    private final SecretKeySpec key;
+    private final int prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    public CipherContext(byte[] key, Direction direction) {
+        this.key = new SecretKeySpec(key, "AES");
+        this.prefix = direction.ordinal() + 1;
+    }
+
+    /**
+     * Encrypt from one buffer straight into another, e.g. between two pooled cells
+     * @param plaintext Data to encrypt, read from position to limit
+     * @param output Receives nonce + ciphertext + tag from its position on
+     * @return Number of bytes written to output
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer output) {
+        try {
+            byte[] nonce = new byte[GCM_IV_LENGTH];
+            ByteBuffer.wrap(nonce).putInt(prefix).putLong(counter.getAndIncrement());
+
+            Cipher cipher = cipher();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+            output.put(nonce);
+            return GCM_IV_LENGTH + cipher.doFinal(plaintext, output);
+        } catch (GeneralSecurityException | BufferOverflowException e) {
+            throw new RuntimeException("Failed to encrypt with AES", e);
+        }
+    }
+
+    /**
+     * Decrypt from one buffer straight into another
+     * @param encrypted Nonce + ciphertext + tag, read from position to limit
+     * @param output Receives the plaintext from its position on
+     * @return Number of bytes written to output
+     */
+    public int decrypt(ByteBuffer encrypted, ByteBuffer output) {
+        try {
+            byte[] nonce = new byte[GCM_IV_LENGTH];
+            encrypted.get(nonce);
+            // A cell encrypted for the other direction, e.g. one reflected back at its sender
+            if (ByteBuffer.wrap(nonce).getInt() != prefix)
+                throw new RuntimeException("Failed to decrypt with AES, nonce is not from the expected direction");
+
+            Cipher cipher = cipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+            return cipher.doFinal(encrypted, output);
+        } catch (GeneralSecurityException | BufferUnderflowException e) {
+            throw new RuntimeException("Failed to decrypt with AES", e);
+        }
+    }
+
+    public byte[] encrypt(byte[] plaintext) {
+        ByteBuffer output = ByteBuffer.allocate(plaintext.length + Crypto.AES_OVERHEAD);
+        encrypt(ByteBuffer.wrap(plaintext), output);
+        return output.array();
+    }
+
+    public byte[] decrypt(byte[] encrypted) {
+        ByteBuffer output = ByteBuffer.allocate(Math.max(0, encrypted.length - Crypto.AES_OVERHEAD));
+        decrypt(ByteBuffer.wrap(encrypted), output);
+        return output.array();
+    }
+}
@@ -1,5 +1,13 @@
 package dev.utils;
 
+import dev.models.enums.ExecutionMode;
+import dev.models.enums.MessageQueueType;
+import dev.models.enums.OverloadPolicy;
+import dev.models.enums.RelayCryptoMode;
+import dev.models.enums.TransportMode;
+import dev.models.enums.WaitStrategy;
+import dev.models.enums.WireFormat;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
@@ -79,5 +87,166 @@ public class Config {
         return Integer.parseInt(properties.getProperty("circuit.length", "3"));
     }
 
+    public int getCellPoolSize() {
+        return Integer.parseInt(properties.getProperty("circuit.cell.pool.size", "4096"));
+    }
+
+    public boolean isCellPoolDirect() {
+        return Boolean.parseBoolean(properties.getProperty("circuit.cell.pool.direct", "false"));
+    }
+
+    public int getCircuitWindowSize() {
+        return Integer.parseInt(properties.getProperty("circuit.window.size", "1000"));
+    }
+
+    public int getCircuitWindowIncrement() {
+        return Integer.parseInt(properties.getProperty("circuit.window.increment", "100"));
+    }
+
+    public RelayCryptoMode getRelayCryptoMode() {
+        return RelayCryptoMode.valueOf(properties.getProperty("circuit.crypto", "stream").toUpperCase());
+    }
+
+    // Suite this node offers when it builds a circuit, as a relay it accepts any
+    public KeyAgreementSuite getKeyAgreementSuite() {
+        return KeyAgreementSuite.valueOf(properties.getProperty("circuit.key.agreement", "x25519").toUpperCase());
+    }
+
+    public int getCircuitCreateQueueSize() {
+        return Integer.parseInt(properties.getProperty("circuit.create.queue.max", "256"));
+    }
+
+    // Workers answering CREATE handshakes. 0 means one per available core.
+    public int getCircuitCreateWorkers() {
+        int workers = Integer.parseInt(properties.getProperty("circuit.create.workers", "0"));
+        return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    // Built circuits kept ready for requests. 0 means circuits are only built when a request finds none, the request
+    // waits for that build.
+    public int getCircuitPoolSize() {
+        return Integer.parseInt(properties.getProperty("circuit.pool.size", "2"));
+    }
+
+    // Data cells of our own requests a circuit may hold back while it waits for credit
+    public int getCircuitPendingCells() {
+        return Integer.parseInt(properties.getProperty("circuit.pending.max", "4096"));
+    }
+
+    // Requests that may wait for a circuit to complete
+    public int getCircuitRequestQueueSize() {
+        return Integer.parseInt(properties.getProperty("circuit.request.queue.max", "64"));
+    }
+
+    public int getCircuitPoolCheckInitialDelayInSeconds() {
+        return Integer.parseInt(properties.getProperty("circuit.pool.check.init", "2"));
+    }
+
+    public int getCircuitPoolCheckDelayInSeconds() {
+        return Integer.parseInt(properties.getProperty("circuit.pool.check.delay", "10"));
+    }
+
+    public int getCircuitMaxAgeInSeconds() {
+        return Integer.parseInt(properties.getProperty("circuit.max.age", "600"));
+    }
+
+    // Relays drop circuits that carried no cell for this long. Meant for clients that vanished without a DESTROY, so
+    // keep it above circuit.max.age.
+    public int getCircuitRelayIdleTimeoutInSeconds() {
+        return Integer.parseInt(properties.getProperty("circuit.relay.idle.timeout", "900"));
+    }
+
+    public int getCircuitBuildTimeoutInSeconds() {
+        return Integer.parseInt(properties.getProperty("circuit.build.timeout", "30"));
+    }
+
+    public int getKeyPoolSize() {
+        return Integer.parseInt(properties.getProperty("circuit.keypool.size", "32"));
+    }
+
+    public int getKeyPoolWatermark() {
+        return Integer.parseInt(properties.getProperty("circuit.keypool.watermark", "8"));
+    }
+
+    public TransportMode getTransportMode() {
+        String envTransport = System.getenv("NODE_TRANSPORT");
+        String transport = envTransport != null ? envTransport : properties.getProperty("network.transport", "blocking");
+        return TransportMode.valueOf(transport.toUpperCase());
+    }
+
+    public int getNioThreads() {
+        return Integer.parseInt(properties.getProperty("network.nio.threads", "2"));
+    }
+
+    public WireFormat getWireFormat() {
+        return WireFormat.valueOf(properties.getProperty("network.wire.format", "binary").toUpperCase());
+    }
+
+    public int getMaxFrameSize() {
+        return Integer.parseInt(properties.getProperty("network.frame.max", "1048576"));
+    }
+
+    public int getOutboundQueueSize() {
+        return Integer.parseInt(properties.getProperty("peer.outbound.queue.max", "1024"));
+    }
+
+    public ExecutionMode getExecutionMode() {
+        String envExecution = System.getenv("NODE_EXECUTION_MODE");
+        String executionMode = envExecution != null ? envExecution : properties.getProperty("execution.mode", "platform");
+        return ExecutionMode.valueOf(executionMode.toUpperCase());
+    }
+
+    // Circuit lanes of the message handler, one thread each. 0 means one lane per available core.
+    public int getMessageHandlerLanes() {
+        int lanes = Integer.parseInt(properties.getProperty("message.handler.lanes", "0"));
+        return lanes > 0 ? lanes : Runtime.getRuntime().availableProcessors();
+    }
+
+    // Events per handler lane before the overload policy kicks in
+    public int getMessageQueueCapacity() {
+        return Integer.parseInt(properties.getProperty("message.queue.max", "10000"));
+    }
+
+    // Stream relay crypto cannot lose a cell, one dropped cell would leave the circuit's keystream and digest out of
+    // step for good
+    public OverloadPolicy getMessageQueueOverloadPolicy() {
+        OverloadPolicy policy = OverloadPolicy.valueOf(properties.getProperty("message.queue.overload", "pause_reading").toUpperCase());
+        if (policy == OverloadPolicy.DROP_OLDEST && getRelayCryptoMode() == RelayCryptoMode.STREAM) {
+            logger.warn("message.queue.overload=drop_oldest would break stream relay crypto circuits, using pause_reading");
+            return OverloadPolicy.PAUSE_READING;
+        }
+        return policy;
+    }
+
+    public MessageQueueType getMessageQueueType() {
+        return MessageQueueType.valueOf(properties.getProperty("message.queue.type", "linked").toUpperCase());
+    }
+
+    public WaitStrategy getMessageQueueWaitStrategy() {
+        return WaitStrategy.valueOf(properties.getProperty("message.queue.wait", "park").toUpperCase());
+    }
+
+    // Slots of every handler batch kept for data cells while setup messages are waiting as well
+    public int getMessageQueueDataShare() {
+        return Integer.parseInt(properties.getProperty("message.queue.data.share", "8"));
+    }
+
+    public int getMessageQueueStatsDelayInSeconds() {
+        return Integer.parseInt(properties.getProperty("message.queue.stats.delay", "30"));
+    }
+
+    public int getReplayWindowInSeconds() {
+        return Integer.parseInt(properties.getProperty("message.replay.window", "120"));
+    }
+
+    public int getReplaySkewInSeconds() {
+        return Integer.parseInt(properties.getProperty("message.replay.skew", "30"));
+    }
+
+    // Per handler lane and generation, two generations are kept
+    public int getReplayMaxIds() {
+        return Integer.parseInt(properties.getProperty("message.replay.ids.max", "65536"));
+    }
+
     // TODO: method for verifying config values (integers specifically)
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import dev.models.Message;
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
@@ -19,6 +21,10 @@ public class Crypto {
     private static final String AES_ALGORITHM = "AES/GCM/NoPadding";
     private static final int GCM_IV_LENGTH = 12; // 96 bits
     private static final int GCM_TAG_LENGTH = 128; // 128 bits
+    public static final int AES_OVERHEAD = GCM_IV_LENGTH + GCM_TAG_LENGTH / 8; // bytes added per onion layer
+
+    // Thread safe and seeded once, seeding per call was the most expensive part of a small encryption
+    private static final SecureRandom random = new SecureRandom();
 
     public Crypto() {
         ECGenParameterSpec ecSpec = new ECGenParameterSpec("secp256r1");
@@ -65,22 +71,19 @@ public class Crypto {
     // ==================== ECDH KEY AGREEMENT ====================
 
     /**
-     * Generate a new ephemeral EC key pair for ECDH
+     * Generate a new ephemeral EC key pair for ECDH. Circuit handshakes go through a {@link KeyAgreementSuite} and
+     * take their pairs from an {@link EphemeralKeyPool}.
      */
     public KeyPair generateECDHKeyPair() {
-        try {
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("secp256r1");
-            KeyPairGenerator g = KeyPairGenerator.getInstance("EC");
-            g.initialize(ecSpec, new SecureRandom());
-            return g.generateKeyPair();
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
-            throw new RuntimeException("Failed to generate ECDH key pair", e);
-        }
+        return KeyAgreementSuite.SECP256R1.generateKeyPair();
     }
 
     public PublicKey decodePublicKey(String base64) {
+        return decodePublicKey(Base64.getDecoder().decode(base64));
+    }
+
+    public PublicKey decodePublicKey(byte[] bytes) {
         try {
-            byte[] bytes = Base64.getDecoder().decode(base64);
             KeyFactory kf = KeyFactory.getInstance("EC");
             X509EncodedKeySpec spec = new X509EncodedKeySpec(bytes);
             return kf.generatePublic(spec);
@@ -96,14 +99,7 @@ public class Crypto {
      * @return Shared secret bytes
      */
     public byte[] performECDH(PrivateKey privateKey, PublicKey publicKey) {
-        try {
-            KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
-            keyAgreement.init(privateKey);
-            keyAgreement.doPhase(publicKey, true);
-            return keyAgreement.generateSecret();
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new RuntimeException("Failed to perform ECDH", e);
-        }
+        return KeyAgreementSuite.SECP256R1.agree(privateKey, publicKey);
     }
 
     /**
@@ -137,11 +133,10 @@ public class Crypto {
         try {
             // Generate random IV
             byte[] iv = new byte[GCM_IV_LENGTH];
-            SecureRandom random = new SecureRandom();
             random.nextBytes(iv);
 
             // Initialize cipher
-            Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
+            Cipher cipher = CipherContext.cipher();
             SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
             GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
             cipher.init(Cipher.ENCRYPT_MODE, keySpec, gcmSpec);
@@ -155,8 +150,7 @@ public class Crypto {
             buffer.put(ciphertext);
 
             return buffer.array();
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException |
-                 InvalidKeyException | InvalidAlgorithmParameterException |
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException |
                  IllegalBlockSizeException | BadPaddingException e) {
             throw new RuntimeException("Failed to encrypt with AES", e);
         }
@@ -179,20 +173,61 @@ public class Crypto {
             buffer.get(ciphertext);
 
             // Initialize cipher
-            Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
+            Cipher cipher = CipherContext.cipher();
             SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
             GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
             cipher.init(Cipher.DECRYPT_MODE, keySpec, gcmSpec);
 
             // Decrypt
             return cipher.doFinal(ciphertext);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException |
-                 InvalidKeyException | InvalidAlgorithmParameterException |
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException |
                  IllegalBlockSizeException | BadPaddingException e) {
             throw new RuntimeException("Failed to decrypt with AES", e);
         }
     }
 
+    /**
+     * Encrypt using AES-256-GCM from one buffer straight into another, e.g. between two pooled cells
+     * @param plaintext Data to encrypt, read from position to limit
+     * @param output Receives IV + ciphertext + tag from its position on
+     * @param key 32-byte AES key
+     * @return Number of bytes written to output
+     */
+    public int encryptAES(ByteBuffer plaintext, ByteBuffer output, byte[] key) {
+        try {
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            random.nextBytes(iv);
+
+            Cipher cipher = CipherContext.cipher();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+
+            output.put(iv);
+            return GCM_IV_LENGTH + cipher.doFinal(plaintext, output);
+        } catch (GeneralSecurityException | BufferOverflowException e) {
+            throw new RuntimeException("Failed to encrypt with AES", e);
+        }
+    }
+
+    /**
+     * Decrypt using AES-256-GCM from one buffer straight into another
+     * @param encrypted IV + ciphertext + tag, read from position to limit
+     * @param output Receives the plaintext from its position on
+     * @param key 32-byte AES key
+     * @return Number of bytes written to output
+     */
+    public int decryptAES(ByteBuffer encrypted, ByteBuffer output, byte[] key) {
+        try {
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            encrypted.get(iv);
+
+            Cipher cipher = CipherContext.cipher();
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            return cipher.doFinal(encrypted, output);
+        } catch (GeneralSecurityException | BufferUnderflowException e) {
+            throw new RuntimeException("Failed to decrypt with AES", e);
+        }
+    }
+
     // ==================== GETTERS ====================
 
     public PublicKey getPublicKey() {
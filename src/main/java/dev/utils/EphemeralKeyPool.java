@@ -0,0 +1,75 @@
+package dev.utils;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Pregenerated ephemeral key pairs for circuit handshakes, so generating one stays off the handler threads. Every
+// pair is handed out by exactly one take() and the pool keeps no reference to it afterwards. Dropping below the low
+// watermark schedules a refill up to the full size. An empty pool never blocks, the caller gets a freshly generated
+// pair and pays for it.
+public class EphemeralKeyPool {
+    private final Logger logger;
+    private final Supplier<KeyPair> generator;
+    private final Executor refillExecutor;
+    private final BlockingQueue<KeyPair> pairs;
+    private final int size;
+    private final int lowWatermark;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private final LongAdder warmTakes = new LongAdder();
+    private final LongAdder coldTakes = new LongAdder();
+
+    // A size of 0 turns the pool off, every take() generates
+    public EphemeralKeyPool(Supplier<KeyPair> generator, int size, int lowWatermark, Executor refillExecutor) {
+        this.logger = Logger.getLogger(EphemeralKeyPool.class);
+        this.generator = generator;
+        this.refillExecutor = refillExecutor;
+        this.pairs = new ArrayBlockingQueue<>(Math.max(1, size));
+        this.size = size;
+        this.lowWatermark = Math.min(lowWatermark, size);
+    }
+
+    public KeyPair take() {
+        KeyPair pair = pairs.poll();
+        if (pairs.size() < lowWatermark) refill();
+
+        if (pair != null) {
+            warmTakes.increment();
+            return pair;
+        }
+        coldTakes.increment();
+        return generator.get();
+    }
+
+    // Tops the pool up in the background, at most one refill runs at a time
+    public void refill() {
+        if (size == 0 || !refilling.compareAndSet(false, true)) return;
+
+        refillExecutor.execute(() -> {
+            try {
+                while (pairs.size() < size) pairs.offer(generator.get());
+            } catch (RuntimeException e) {
+                logger.error("Failed to refill the ephemeral key pool: {}", e.getMessage());
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    public int getAvailableCount() {
+        return pairs.size();
+    }
+
+    public long getWarmTakeCount() {
+        return warmTakes.sum();
+    }
+
+    public long getColdTakeCount() {
+        return coldTakes.sum();
+    }
+}
@@ -0,0 +1,54 @@
+package dev.utils;
+
+import dev.models.enums.ExecutionMode;
+import lombok.Getter;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Single place that decides whether blocking work runs on platform or virtual threads
+public class ExecutorFactory {
+    @Getter
+    private final ExecutionMode executionMode;
+
+    public ExecutorFactory(Config config) {
+        this.executionMode = config.getExecutionMode();
+    }
+
+    // One task per peer connection, each blocked on its socket for the lifetime of the link
+    public ExecutorService newPeerExecutor() {
+        if (executionMode == ExecutionMode.VIRTUAL)
+            return Executors.newThreadPerTaskExecutor(threadFactory("peer"));
+        return Executors.newCachedThreadPool(threadFactory("peer"));
+    }
+
+    // Short-lived blocking work, e.g. building a circuit and waiting on connects. Platform mode runs the tasks one
+    // after the other, virtual mode all at once: whatever they share has to be thread-safe.
+    public ExecutorService newTaskExecutor(String name) {
+        if (executionMode == ExecutionMode.VIRTUAL)
+            return Executors.newThreadPerTaskExecutor(threadFactory(name));
+        return Executors.newSingleThreadExecutor(threadFactory(name));
+    }
+
+    // CPU bound work behind a queue of the caller's choosing. Always platform threads, the workers never block.
+    public ThreadPoolExecutor newWorkerPool(String name, int threads, BlockingQueue<Runnable> queue, RejectedExecutionHandler rejectionHandler) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+                Thread.ofPlatform().name(name + "-", 0).factory(), rejectionHandler);
+    }
+
+    public ScheduledExecutorService newScheduler(String name, int threads) {
+        return Executors.newScheduledThreadPool(threads, threadFactory(name));
+    }
+
+    private ThreadFactory threadFactory(String name) {
+        if (executionMode == ExecutionMode.VIRTUAL)
+            return Thread.ofVirtual().name(name + "-", 0).factory();
+        return Thread.ofPlatform().name(name + "-", 0).factory();
+    }
+}
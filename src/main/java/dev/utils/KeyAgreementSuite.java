@@ -0,0 +1,139 @@
+package dev.utils;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.security.spec.XECPublicKeySpec;
+
+/**
+ * Key agreement for circuit handshakes. The client picks the suite and names it in front of its key:
+ * <pre>
+ * [byte suite][public key]
+ * </pre>
+ * The hop answers with its own key of the same suite. Identity keys are not affected, they stay secp256r1.
+ */
+public enum KeyAgreementSuite {
+    // Raw 32 byte u-coordinate as in RFC 7748
+    X25519 {
+        private static final int KEY_SIZE = 32;
+
+        @Override
+        public KeyPair generateKeyPair() {
+            try {
+                KeyPairGenerator g = KeyPairGenerator.getInstance("X25519");
+                g.initialize(NamedParameterSpec.X25519, random);
+                return g.generateKeyPair();
+            } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+                throw new RuntimeException("Failed to generate X25519 key pair", e);
+            }
+        }
+
+        // The u-coordinate is little-endian on the wire, BigInteger is big-endian
+        @Override
+        public byte[] encode(PublicKey publicKey) {
+            byte[] u = ((XECPublicKey) publicKey).getU().toByteArray();
+            byte[] raw = new byte[KEY_SIZE];
+            for (int i = 0; i < Math.min(u.length, KEY_SIZE); i++) raw[i] = u[u.length - 1 - i];
+            return raw;
+        }
+
+        @Override
+        public PublicKey decode(byte[] raw) {
+            if (raw.length != KEY_SIZE) throw new RuntimeException("X25519 key of " + raw.length + " bytes");
+            try {
+                byte[] u = new byte[KEY_SIZE];
+                for (int i = 0; i < KEY_SIZE; i++) u[i] = raw[KEY_SIZE - 1 - i];
+                return KeyFactory.getInstance("XDH").generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, new BigInteger(1, u)));
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Failed to decode X25519 public key", e);
+            }
+        }
+
+        @Override
+        String algorithm() {
+            return "XDH";
+        }
+    },
+
+    // X.509 encoded, 91 bytes, what every handshake used before suites existed
+    SECP256R1 {
+        @Override
+        public KeyPair generateKeyPair() {
+            try {
+                KeyPairGenerator g = KeyPairGenerator.getInstance("EC");
+                g.initialize(new ECGenParameterSpec("secp256r1"), random);
+                return g.generateKeyPair();
+            } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+                throw new RuntimeException("Failed to generate ECDH key pair", e);
+            }
+        }
+
+        @Override
+        public byte[] encode(PublicKey publicKey) {
+            return publicKey.getEncoded();
+        }
+
+        @Override
+        public PublicKey decode(byte[] raw) {
+            try {
+                return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(raw));
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Failed to decode EC public key", e);
+            }
+        }
+
+        @Override
+        String algorithm() {
+            return "ECDH";
+        }
+    };
+
+    private static final KeyAgreementSuite[] SUITES = values();
+    private static final SecureRandom random = new SecureRandom();
+
+    public abstract KeyPair generateKeyPair();
+
+    public abstract byte[] encode(PublicKey publicKey);
+
+    public abstract PublicKey decode(byte[] raw);
+
+    abstract String algorithm();
+
+    /**
+     * Shared secret of our private key and their public key, both of this suite
+     * @return Raw shared secret, to be run through {@link Crypto#deriveAESKey(byte[])}
+     */
+    public byte[] agree(PrivateKey privateKey, PublicKey publicKey) {
+        try {
+            KeyAgreement keyAgreement = KeyAgreement.getInstance(algorithm());
+            keyAgreement.init(privateKey);
+            keyAgreement.doPhase(publicKey, true);
+            return keyAgreement.generateSecret();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to perform " + name() + " key agreement", e);
+        }
+    }
+
+    // The client's half of a handshake, [byte suite][public key]
+    public byte[] encodeOffer(PublicKey publicKey) {
+        byte[] key = encode(publicKey);
+        return ByteBuffer.allocate(1 + key.length).put((byte) ordinal()).put(key).array();
+    }
+
+    public static KeyAgreementSuite ofOffer(byte[] offer) {
+        int id = offer.length == 0 ? -1 : offer[0];
+        if (id < 0 || id >= SUITES.length) throw new RuntimeException("Unknown key agreement suite " + id);
+        return SUITES[id];
+    }
+
+    public static PublicKey decodeOffer(byte[] offer) {
+        byte[] key = new byte[offer.length - 1];
+        System.arraycopy(offer, 1, key, 0, key.length);
+        return ofOffer(offer).decode(key);
+    }
+}